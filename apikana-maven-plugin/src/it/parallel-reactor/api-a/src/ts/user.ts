@@ -0,0 +1,7 @@
+import {Int} from 'apikana/default-types';
+
+export interface User {
+    id: Int
+    firstName: string // The given name
+    lastName: string // The family name
+}
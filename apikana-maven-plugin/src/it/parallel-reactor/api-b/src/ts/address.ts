@@ -0,0 +1,7 @@
+import {Int} from 'apikana/default-types';
+
+export interface Address {
+    id: Int
+    street: string
+    city: string
+}
@@ -0,0 +1,7 @@
+import {Int} from 'apikana/default-types';
+
+export interface Order {
+    id: Int
+    userId: Int // The id of a User of api-a
+    addressId: Int // The id of an Address of api-b
+}
@@ -0,0 +1,6 @@
+import {Int} from 'apikana/default-types';
+
+export interface Product {
+    id: Int
+    name: string
+}
@@ -0,0 +1,6 @@
+import {Int} from 'apikana/default-types';
+
+export interface Stock {
+    productId: Int
+    amount: Int
+}
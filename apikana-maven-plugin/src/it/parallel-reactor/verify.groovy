@@ -0,0 +1,65 @@
+import java.util.zip.ZipFile
+
+//the outputs of the parallel build in [module]/target must be the same as the ones of the serial build in serial/[module]
+
+def files(File dir) {
+    def res = new TreeMap()
+    if (dir.directory) {
+        dir.eachFileRecurse(groovy.io.FileType.FILES) { res[dir.toPath().relativize(it.toPath()).toString().replace('\\', '/')] = it.bytes }
+    }
+    res
+}
+
+def entries(File jar) {
+    def res = new TreeMap()
+    new ZipFile(jar).withCloseable { zip ->
+        zip.entries().each { if (!it.directory) res[it.name] = zip.getInputStream(it).bytes }
+    }
+    res
+}
+
+def compare(String what, Map expected, Map actual, List problems) {
+    if (expected.keySet() != actual.keySet()) {
+        problems << "$what: only serial ${expected.keySet() - actual.keySet()}, only parallel ${actual.keySet() - expected.keySet()}"
+        return
+    }
+    expected.each { name, bytes ->
+        if (!Arrays.equals(bytes, actual[name])) {
+            problems << "$what: $name differs"
+        }
+    }
+}
+
+def problems = []
+['api-a', 'api-b', 'api-c', 'api-d'].each { module ->
+    def serial = new File(basedir, "serial/$module")
+    def target = new File(basedir, "$module/target")
+    def api = files(new File(serial, 'api'))
+    if (api.isEmpty()) {
+        problems << "$module: the serial build generated nothing"
+    }
+    compare("$module target/api", api, files(new File(target, 'api')), problems)
+    def jars = serial.listFiles({ it.name.endsWith('.jar') } as FileFilter) ?: new File[0]
+    if (jars.length != 3) {
+        problems << "$module: expected the jar, the api jar and the sources jar, but got ${jars*.name}"
+    }
+    jars.each { jar ->
+        def parallel = new File(target, jar.name)
+        if (parallel.file) {
+            compare("$module ${jar.name}", entries(jar), entries(parallel), problems)
+        } else {
+            problems << "$module: ${jar.name} is missing"
+        }
+    }
+}
+
+//dependency models are unpacked from the jars of the other modules
+['api-a', 'api-b'].each { dependency ->
+    if (!new File(basedir, "api-c/target/api-dependencies/ts/$dependency").directory) {
+        problems << "api-c: the models of $dependency have not been unpacked"
+    }
+}
+
+if (problems) {
+    throw new AssertionError(problems.join('\n'))
+}
@@ -3,7 +3,6 @@ package org.swisspush.apikana;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
-import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.model.Resource;
@@ -17,20 +16,35 @@ import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.project.ProjectBuilder;
 import org.apache.maven.project.artifact.ProjectArtifact;
 import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.crypto.DefaultSettingsDecryptionRequest;
+import org.apache.maven.settings.crypto.SettingsDecrypter;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 import static org.twdata.maven.mojoexecutor.MojoExecutor.*;
 
 public abstract class AbstractApikanaMojo extends AbstractMojo {
     protected final static String OUTPUT = "target/api";
+    protected final static String SERVE_PORT = "apikana-serve.port";
+    protected final static String API_MARKER = "META-INF/apikana/api.properties";
 
     @Parameter(defaultValue = "${project}", readonly = true)
     protected MavenProject mavenProject;
@@ -50,6 +64,9 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
     @Component
     private ProjectBuilder projectBuilder;
 
+    @Component
+    private SettingsDecrypter settingsDecrypter;
+
     /**
      * The working directory for node.
      */
@@ -62,59 +79,443 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
     @Parameter(defaultValue = "src/style", property = "apikana.style")
     protected String style;
 
-    protected void unpackModelDependencies() throws IOException {
+    /**
+     * The number of threads used to resolve and unpack the model dependencies.
+     */
+    @Parameter(defaultValue = "4", property = "apikana.dependency-threads")
+    private int dependencyThreads;
+
+    /**
+     * If the models of dependencies should be extracted once into a machine-wide store and linked from there.
+     * The files in target/api-dependencies are then hard links (or symbolic links) into the store and must not be modified.
+     */
+    @Parameter(defaultValue = "false", property = "apikana.shared-cache")
+    private boolean sharedCache;
+
+    /**
+     * The directory of the machine-wide store of extracted models.
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/apikana-cache", property = "apikana.shared-cache-dir")
+    private File sharedCacheDir;
+
+    /**
+     * The number of hours an artifact that could not be found in any repository is not looked up again.
+     * 0 means missing artifacts are only remembered during the current build.
+     */
+    @Parameter(defaultValue = "24", property = "apikana.resolution-miss-ttl")
+    private int resolutionMissTtl;
+
+    /**
+     * If the sources of dependencies without apikana marker should also be searched for models.
+     * This is needed for APIs that have been built with an older version of this plugin.
+     * It resolves the sources of all dependencies, so only enable it while such APIs are used.
+     */
+    @Parameter(defaultValue = "false", property = "apikana.scan-unmarked-dependencies")
+    private boolean scanUnmarkedDependencies;
+
+    /**
+     * The fields of the maven project model that are written into the apikana configuration, e.g. groupId, artifactId, version.
+     * All fields are written if empty.
+     */
+    @Parameter(property = "apikana.project-fields")
+    private List<String> projectFields;
+
+    /**
+     * The modification time of the entries in the created jars, as ISO 8601 date or as seconds since the epoch.
+     * If not set, 1980-01-01 is used, so building the same content twice gives the same jar.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * Several independent APIs of the module, each generated into target/api/[name] and packaged under [name]/.
+     * If empty, the module has a single API given by the api and models parameters.
+     */
+    @Parameter
+    private List<ApiSpec> apiSpecs;
+
+    /**
+     * Unpack the style jars of the parent projects and the models of all dependencies into the dependency directory.
+     * The style is an overlay with the precedence module > parent chain (nearest parent first) > dependencies,
+     * only the files that are not overridden by a layer with higher precedence are written.
+     * Dependencies that have not changed since the last extraction are not unpacked again.
+     */
+    protected void unpackDependencies() throws IOException {
+        final long start = System.currentTimeMillis();
+        final List<ModelJarSource> sources = new ArrayList<>();
         for (final Artifact a : mavenProject.getArtifacts()) {
-            JarFile jar = classifiedArtifactJar(a, "sources");
-            if (jar != null) {
-                final Enumeration<JarEntry> entries = jar.entries();
-                while (entries.hasMoreElements()) {
-                    final JarEntry entry = entries.nextElement();
-                    copyModel(jar, entry, "", "ts", a.getArtifactId());
-                    copyModel(jar, entry, "", "json-schema-v3", a.getArtifactId());
-                    copyModel(jar, entry, "", "json-schema-v4", a.getArtifactId());
-                    copyModel(jar, entry, "", "style", "");
+            final boolean marked = isApi(a);
+            if (scanUnmarkedDependencies || marked) {
+                sources.add(new ModelJarSource(a, "sources", marked));
+            }
+        }
+        final File markerDir = target("apikana-dependencies");
+        if (!markerDir.exists()) {
+            FileUtils.deleteDirectory(apiDependencies(""));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, dependencyThreads));
+        try {
+            //ordered by ascending precedence: dependencies, then the parent chain from the farthest to the nearest parent
+            final List<ModelJar> jars = new ArrayList<>(parallel(executor, sources, source -> modelJar(source, markerDir)));
+            final List<ModelJar> parentStyles = StyleLayers.of(mavenSession).get(mavenProject, this::styleJar);
+            for (int i = parentStyles.size() - 1; i >= 0; i--) {
+                final ModelJar style = parentStyles.get(i);
+                jars.add(style.withMarker(new File(markerDir, style.key() + ".properties")));
+            }
+            //when two jars contain the same file, the later one wins, independent of the execution order
+            final Map<String, ModelJar> owners = new HashMap<>();
+            for (final ModelJar jar : jars) {
+                if (jar != null) {
+                    for (final String target : jar.entries.keySet()) {
+                        owners.put(target, jar);
+                    }
+                }
+            }
+            //the style of the module itself has the highest precedence and is applied by apikana
+            owners.keySet().removeAll(moduleStyle());
+            final List<Integer> counts = parallel(executor, jars, jar -> jar == null ? 0 : extractModelJar(jar, owners, markerDir));
+            pruneDependencies(markerDir, jars, owners.keySet());
+            resolutionCache().save();
+            getLog().info("Artifact resolution cache: " + resolutionCache().statistics());
+            getLog().info("Unpacked " + counts.stream().mapToInt(i -> i).sum() + " model files of " + jars.size()
+                    + " artifacts in " + (System.currentTimeMillis() - start) + " ms.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the configured apiSpecs, empty if the module has a single API.
+     */
+    protected List<ApiSpec> apiSpecs() throws MojoExecutionException {
+        if (apiSpecs == null) {
+            return Collections.emptyList();
+        }
+        final Set<String> names = new HashSet<>();
+        for (final ApiSpec spec : apiSpecs) {
+            final String name = spec.getName();
+            if (name == null || !name.matches("[A-Za-z0-9_-][A-Za-z0-9_.-]*") || "ui".equals(name) || "model".equals(name)) {
+                throw new MojoExecutionException("Invalid apiSpec name '" + name + "'. It must be a valid directory name other than ui and model.");
+            }
+            if (!names.add(name)) {
+                throw new MojoExecutionException("Duplicate apiSpec name '" + name + "'.");
+            }
+        }
+        return apiSpecs;
+    }
+
+    private boolean isApi(Artifact a) throws IOException {
+        final File file = a.getFile();
+        if (file == null) {
+            return false;
+        }
+        if (file.isDirectory()) {
+            return new File(file, API_MARKER).exists();
+        }
+        try (final JarFile jar = new JarFile(file)) {
+            return jar.getEntry(API_MARKER) != null;
+        } catch (IOException e) {
+            getLog().debug("Could not open " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * The marker is written without the date comment of Properties.store, so the jars are reproducible.
+     */
+    protected byte[] apiMarker() {
+        final Map<String, String> props = new TreeMap<>();
+        props.put("groupId", mavenProject.getGroupId());
+        props.put("artifactId", mavenProject.getArtifactId());
+        props.put("version", mavenProject.getVersion());
+        final StringBuilder s = new StringBuilder("#apikana API\n");
+        for (final Map.Entry<String, String> prop : props.entrySet()) {
+            s.append(prop.getKey()).append('=').append(escapeProperty(prop.getValue())).append('\n');
+        }
+        return s.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String escapeProperty(String value) {
+        final StringBuilder s = new StringBuilder();
+        for (final char c : value.toCharArray()) {
+            if (c == '\\' || c == '=' || c == ':' || c == '#' || c == '!') {
+                s.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                s.append(String.format("\\u%04x", (int) c));
+            } else {
+                s.append(c);
+            }
+        }
+        return s.toString();
+    }
+
+    private ModelJar modelJar(ModelJarSource source, File markerDir) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Artifact resolved = classifiedArtifact(source.artifact, source.classifier);
+        if (resolved == null) {
+            return null;
+        }
+        final ModelJar modelJar = new ModelJar(source.artifact, resolved.getFile(), "style".equals(source.classifier));
+        modelJar.load(new File(markerDir, modelJar.key() + ".properties"));
+        if (!source.marked && !modelJar.entries.isEmpty()) {
+            getLog().warn(source.artifact + " contains models but no apikana marker. Rebuild it with a newer apikana-maven-plugin.");
+        }
+        modelJar.millis = System.currentTimeMillis() - start;
+        return modelJar;
+    }
+
+    private ModelJar styleJar(MavenProject parent) throws IOException {
+        final Artifact artifact = new ProjectArtifact(parent);
+        final Artifact resolved = classifiedArtifact(artifact, "style");
+        if (resolved == null) {
+            return null;
+        }
+        final ModelJar modelJar = new ModelJar(artifact, resolved.getFile(), true);
+        modelJar.load(null);
+        return modelJar;
+    }
+
+    private Set<String> moduleStyle() throws IOException {
+        final Set<String> targets = new HashSet<>();
+        final Path dir = file(style).toPath();
+        if (Files.isDirectory(dir)) {
+            try (final Stream<Path> walk = Files.walk(dir)) {
+                walk.filter(Files::isRegularFile).forEach(p -> targets.add("style/" + dir.relativize(p).toString().replace('\\', '/')));
+            }
+        }
+        return targets;
+    }
+
+    private int extractModelJar(ModelJar modelJar, Map<String, ModelJar> owners, File markerDir) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Set<String> owned = new HashSet<>();
+        for (final String target : modelJar.entries.keySet()) {
+            if (owners.get(target) == modelJar) {
+                owned.add(target);
+            }
+        }
+        if (modelJar.isExtracted(owned, apiDependencies(""))) {
+            getLog().debug(modelJar.artifact + " is unchanged, resolved in " + modelJar.millis + " ms.");
+            return 0;
+        }
+        if (sharedCache) {
+            final File store = sharedStore(modelJar);
+            for (final String target : owned) {
+                link(new File(store, modelJar.entries.get(target)).toPath(), apiDependencies(target).toPath());
+            }
+        } else {
+            try (final JarFile jar = new JarFile(modelJar.file)) {
+                for (final String target : owned) {
+                    final File modelFile = apiDependencies(target);
+                    modelFile.getParentFile().mkdirs();
+                    //never write into a file that could be linked to the shared store
+                    Files.deleteIfExists(modelFile.toPath());
+                    IoUtils.copy(jar.getInputStream(jar.getEntry(modelJar.entries.get(target))), modelFile.toPath());
                 }
             }
         }
+        modelJar.writeMarker(new File(markerDir, modelJar.key() + ".properties"), owned);
+        getLog().debug("Unpacked " + owned.size() + " files of " + modelJar.artifact + " in "
+                + (modelJar.millis + System.currentTimeMillis() - start) + " ms.");
+        return owned.size();
     }
 
-    protected void unpackStyleDependencies(MavenProject project) throws IOException {
-        if (project != null) {
-            JarFile jar = classifiedArtifactJar(new ProjectArtifact(project), "style");
+    private File sharedStore(ModelJar modelJar) throws IOException {
+        final Artifact a = modelJar.artifact;
+        final File store = new File(sharedCacheDir, a.getGroupId() + "/" + a.getArtifactId() + "/" + a.getVersion() + "/" + modelJar.checksum);
+        if (store.exists()) {
+            return store;
+        }
+        //extract into a private directory and publish it atomically, so concurrent builds never see a partial store
+        store.getParentFile().mkdirs();
+        final Path temp = Files.createTempDirectory(store.getParentFile().toPath(), modelJar.checksum + ".tmp");
+        try {
+            try (final JarFile jar = new JarFile(modelJar.file)) {
+                for (final String name : modelJar.entries.values()) {
+                    final File file = new File(temp.toFile(), name);
+                    file.getParentFile().mkdirs();
+                    IoUtils.copy(jar.getInputStream(jar.getEntry(name)), file.toPath());
+                }
+            }
+            Files.move(temp, store.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            if (!store.exists()) {
+                throw e;
+            }
+            getLog().debug("Shared store " + store + " has been created concurrently.");
+        } finally {
+            if (Files.exists(temp)) {
+                FileUtils.deleteDirectory(temp.toFile());
+            }
+        }
+        return store;
+    }
+
+    private void link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.createSymbolicLink(target, source);
+            } catch (IOException | UnsupportedOperationException e2) {
+                IoUtils.copy(source, target);
+            }
+        }
+    }
+
+    private void pruneDependencies(File markerDir, List<ModelJar> jars, Set<String> targets) throws IOException {
+        final Set<String> current = new HashSet<>();
+        for (final ModelJar jar : jars) {
             if (jar != null) {
-                final Enumeration<JarEntry> entries = jar.entries();
-                while (entries.hasMoreElements()) {
-                    final JarEntry entry = entries.nextElement();
-                    copyModel(jar, entry, "", "style", "");
+                current.add(jar.key() + ".properties");
+            }
+        }
+        final File[] markers = markerDir.listFiles();
+        if (markers == null) {
+            return;
+        }
+        for (final File marker : markers) {
+            final Properties props = new Properties();
+            try (final InputStream in = new FileInputStream(marker)) {
+                props.load(in);
+            }
+            for (final String target : ModelJar.written(props)) {
+                if (!targets.contains(target)) {
+                    Files.deleteIfExists(apiDependencies(target).toPath());
                 }
             }
-            unpackStyleDependencies(project.getParent());
+            if (!current.contains(marker.getName())) {
+                Files.delete(marker.toPath());
+            }
         }
     }
 
-    private JarFile classifiedArtifactJar(Artifact a, String classifier) throws IOException {
-        Artifact artifact = classifiedArtifact(a, classifier);
-        return artifact == null ? null : new JarFile(artifact.getFile());
+    protected <T, R> List<R> parallel(ExecutorService executor, List<T> items, IoFunction<T, R> task) throws IOException {
+        final List<Future<R>> futures = new ArrayList<>();
+        for (final T item : items) {
+            futures.add(executor.submit(() -> task.apply(item)));
+        }
+        final List<R> results = new ArrayList<>();
+        try {
+            for (final Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tasks.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    protected interface IoFunction<T, R> {
+        R apply(T value) throws IOException;
+    }
+
+    private static class ModelJarSource {
+        final Artifact artifact;
+        final String classifier;
+        final boolean marked;
+
+        ModelJarSource(Artifact artifact, String classifier, boolean marked) {
+            this.artifact = artifact;
+            this.classifier = classifier;
+            this.marked = marked;
+        }
     }
 
     private Artifact classifiedArtifact(Artifact a, String classifier) {
+        final Artifact artifact = repositorySystem.createArtifactWithClassifier(a.getGroupId(), a.getArtifactId(), a.getVersion(), "jar", classifier);
+        return resolutionCache().resolve(artifact, art -> {
+            final ArtifactResolutionRequest req = new ArtifactResolutionRequest();
+            req.setArtifact(art);
+            req.setRemoteRepositories(mavenProject.getRemoteArtifactRepositories());
+            return repositorySystem.resolve(req);
+        });
+    }
+
+    /**
+     * Resolve an artifact that must exist, like a toolchain.
+     */
+    protected File resolveArtifact(String groupId, String artifactId, String version, String classifier) throws MojoExecutionException {
+        final Artifact artifact = repositorySystem.createArtifactWithClassifier(groupId, artifactId, version, "jar", classifier);
         final ArtifactResolutionRequest req = new ArtifactResolutionRequest();
-        req.setArtifact(repositorySystem.createArtifactWithClassifier(a.getGroupId(), a.getArtifactId(), a.getVersion(), "jar", classifier));
+        req.setArtifact(artifact);
         req.setRemoteRepositories(mavenProject.getRemoteArtifactRepositories());
-        final ArtifactResolutionResult result = repositorySystem.resolve(req);
-        final Iterator<Artifact> iter = result.getArtifacts().iterator();
-        return iter.hasNext() ? iter.next() : null;
+        final Iterator<Artifact> resolved = repositorySystem.resolve(req).getArtifacts().iterator();
+        final File file = resolved.hasNext() ? resolved.next().getFile() : null;
+        if (file == null || !file.isFile()) {
+            throw new MojoExecutionException("Could not resolve " + artifact);
+        }
+        return file;
+    }
+
+    /**
+     * The active proxies of the maven settings as npm arguments, like the frontend plugin passes them to npm.
+     */
+    protected List<String> npmProxyArgs() {
+        final List<Proxy> active = new ArrayList<>();
+        for (final Proxy proxy : mavenSession.getSettings().getProxies()) {
+            if (proxy.isActive()) {
+                active.add(proxy);
+            }
+        }
+        final List<String> args = new ArrayList<>();
+        if (active.isEmpty()) {
+            return args;
+        }
+        Proxy http = null;
+        Proxy https = null;
+        for (final Proxy proxy : settingsDecrypter.decrypt(new DefaultSettingsDecryptionRequest().setProxies(active)).getProxies()) {
+            if ("https".equalsIgnoreCase(proxy.getProtocol())) {
+                https = https == null ? proxy : https;
+            } else {
+                http = http == null ? proxy : http;
+            }
+        }
+        if (http != null) {
+            args.add("--proxy=" + proxyUrl(http));
+        }
+        final Proxy secure = https != null ? https : http;
+        args.add("--https-proxy=" + proxyUrl(secure));
+        if (secure.getNonProxyHosts() != null && secure.getNonProxyHosts().trim().length() > 0) {
+            args.add("--noproxy=" + secure.getNonProxyHosts().trim().replace('|', ','));
+        }
+        return args;
     }
 
-    private void copyModel(JarFile jar, JarEntry entry, String basePath, String type, String targetDir) throws IOException {
-        final String sourceName = (basePath.length() > 0 ? basePath + "/" : "") + type;
-        if (!entry.isDirectory() && entry.getName().startsWith(sourceName)) {
-            final File modelFile = apiDependencies(type + "/" + targetDir + entry.getName().substring((sourceName).length()));
-            modelFile.getParentFile().mkdirs();
-            try (final FileOutputStream out = new FileOutputStream(modelFile)) {
-                IoUtils.copy(jar.getInputStream(entry), out);
+    private static String proxyUrl(Proxy proxy) {
+        final StringBuilder url = new StringBuilder(proxy.getProtocol() == null ? "http" : proxy.getProtocol()).append("://");
+        if (proxy.getUsername() != null && proxy.getUsername().length() > 0) {
+            try {
+                url.append(URLEncoder.encode(proxy.getUsername(), "UTF-8"));
+                if (proxy.getPassword() != null) {
+                    url.append(':').append(URLEncoder.encode(proxy.getPassword(), "UTF-8"));
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
             }
+            url.append('@');
         }
+        return url.append(proxy.getHost()).append(':').append(proxy.getPort()).toString();
+    }
+
+    protected File sharedCache(String name) {
+        return new File(sharedCacheDir, name);
+    }
+
+    private ResolutionCache resolutionCache() {
+        return ResolutionCache.of(mavenSession, TimeUnit.HOURS.toMillis(resolutionMissTtl));
     }
 
     private void updateJson(File file, Consumer<Map<String, Object>> updater) throws IOException {
@@ -124,6 +525,25 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
         mapper.writer().withDefaultPrettyPrinter().writeValue(file, json);
     }
 
+    /**
+     * @return the modification time of the entries in the created jars in milliseconds.
+     */
+    protected long entryTime() throws MojoExecutionException {
+        //like in maven, a single character means not set
+        if (outputTimestamp == null || outputTimestamp.length() < 2) {
+            return ZipBuilder.DEFAULT_TIME;
+        }
+        if (outputTimestamp.matches("\\d+")) {
+            return Long.parseLong(outputTimestamp) * 1000;
+        }
+        try {
+            return OffsetDateTime.parse(outputTimestamp).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new MojoExecutionException("Invalid outputTimestamp '" + outputTimestamp
+                    + "', expected an ISO 8601 date like 2020-01-01T00:00:00Z or seconds since the epoch.");
+        }
+    }
+
     protected File file(String name) {
         return new File(mavenProject.getBasedir(), name);
     }
@@ -136,6 +556,14 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
         return new File(nodeWorkingDir, name);
     }
 
+    /**
+     * A file in the build directory of the top level project of the reactor.
+     */
+    protected File reactorTarget(String name) {
+        final MavenProject top = mavenSession.getTopLevelProject() == null ? mavenProject : mavenSession.getTopLevelProject();
+        return new File(top.getBuild().getDirectory(), name);
+    }
+
     protected File apiDependencies(String name) {
         return target("api-dependencies/" + name);
     }
@@ -145,24 +573,44 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
     }
 
     protected void writeProjectProps() throws IOException {
-        final Map<String, Object> propectProps = new ProjectSerializer().serialize(mavenProject);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        new ProjectSerializer(projectFields).write(mavenProject, out);
         final File file = working("properties.json");
+        //keep the file untouched if nothing changed, so its timestamp stays stable
+        if (file.length() == out.size() && Arrays.equals(Files.readAllBytes(file.toPath()), out.toByteArray())) {
+            return;
+        }
         file.getParentFile().mkdirs();
-        new ObjectMapper().writeValue(file, propectProps);
+        try (final OutputStream fileOut = new FileOutputStream(file)) {
+            out.writeTo(fileOut);
+        }
+    }
+
+    protected boolean isParallelBuild() {
+        return mavenSession.isParallel();
+    }
+
+    /**
+     * Execute the action while holding a lock shared by all builds using the same local repository.
+     */
+    protected <T> T localRepositoryLock(String name, Callable<T> action) throws Exception {
+        return IoUtils.locked(new File(mavenSession.getLocalRepository().getBasedir(), ".apikana/" + name), action);
     }
 
     protected boolean isPom() {
         return "pom".equals(mavenProject.getPackaging());
     }
 
-    protected void generatePackageJson(String version) throws IOException {
-        updateJson(working("package.json"), pack -> {
-            pack.put("name", mavenProject.getArtifactId());
-            final Map<String, String> scripts = (Map) pack.merge("scripts", new HashMap<>(), (oldVal, newVal) -> oldVal);
-            scripts.put("apikana", "apikana");
-            final Map<String, String> devDependencies = (Map) pack.merge("devDependencies", new HashMap<>(), (oldVal, newVal) -> oldVal);
-            devDependencies.put("apikana", version);
-        });
+    protected void generatePackageJson(File file, String name, String version) throws IOException {
+        updateJson(file, pack -> fillPackageJson(pack, name, version));
+    }
+
+    protected void fillPackageJson(Map<String, Object> pack, String name, String version) {
+        pack.put("name", name);
+        final Map<String, String> scripts = (Map) pack.merge("scripts", new HashMap<>(), (oldVal, newVal) -> oldVal);
+        scripts.put("apikana", "apikana");
+        final Map<String, String> devDependencies = (Map) pack.merge("devDependencies", new HashMap<>(), (oldVal, newVal) -> oldVal);
+        devDependencies.put("apikana", version);
     }
 
     protected void checkNodeInstalled() throws MojoExecutionException {
@@ -186,10 +634,10 @@ public abstract class AbstractApikanaMojo extends AbstractMojo {
         return pb.directory(workDir);
     }
 
-    protected void executeFrontend(String goal, Xpp3Dom config) throws MojoExecutionException {
+    protected void executeFrontend(String goal, Xpp3Dom config, File workingDir) throws MojoExecutionException {
         final File npmrc = file(".npmrc");
         final String rc = npmrc.exists() ? "--userconfig " + npmrc.getAbsolutePath() + " " : "";
-        config.addChild(element("workingDirectory", working("").getAbsolutePath()).toDom());
+        config.addChild(element("workingDirectory", workingDir.getAbsolutePath()).toDom());
         final Xpp3Dom arguments = config.getChild("arguments");
         if (arguments != null) {
             arguments.setValue(rc + arguments.getValue());
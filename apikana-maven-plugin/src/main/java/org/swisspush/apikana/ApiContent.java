@@ -0,0 +1,224 @@
+package org.swisspush.apikana;
+
+import org.eclipse.jetty.http.MimeTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable in-memory snapshot of the documentation and models contained in the api jar or in a directory like target/api.
+ * Gzip and brotli variants created at packaging time are attached to the file they belong to.
+ */
+class ApiContent {
+    private static final String DEPENDENCIES = "model/ts/node_modules/";
+    private static final String[] PREFIXES = new String[]{"ui/", "model/"};
+    private static final Map<String, String> EXTRA_MIME_TYPES = new HashMap<>();
+    private static final MimeTypes MIME_TYPES = new MimeTypes();
+
+    static {
+        EXTRA_MIME_TYPES.put("yaml", "text/yaml;charset=utf-8");
+        EXTRA_MIME_TYPES.put("yml", "text/yaml;charset=utf-8");
+        EXTRA_MIME_TYPES.put("ts", "text/plain;charset=utf-8");
+        EXTRA_MIME_TYPES.put("map", "application/json");
+        EXTRA_MIME_TYPES.put("woff2", "font/woff2");
+    }
+
+    private final Map<String, Content> contents = new HashMap<>();
+    private final Map<String, byte[]> gzip = new HashMap<>();
+    private final Map<String, byte[]> brotli = new HashMap<>();
+    final File source;
+    final long stamp;
+
+    private ApiContent(File source, long stamp) {
+        this.source = source;
+        this.stamp = stamp;
+    }
+
+    /**
+     * @return the jar containing this class or null if this class is not loaded from a jar.
+     */
+    static File ownJar() {
+        final URL location = ApiContent.class.getProtectionDomain().getCodeSource().getLocation();
+        try {
+            final File jar = new File(location.toURI());
+            return jar.isFile() ? jar : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Index a jar file or a directory.
+     */
+    static ApiContent of(File source) throws IOException {
+        //take the stamp first, so changes made while reading are detected later on
+        final ApiContent index = new ApiContent(source, stamp(source));
+        if (source.isDirectory()) {
+            index.addDir(source);
+        } else {
+            index.addJar(source);
+        }
+        for (final Content content : index.contents.values()) {
+            content.gzip = index.gzip.get(content.name);
+            content.brotli = index.brotli.get(content.name);
+        }
+        return index;
+    }
+
+    /**
+     * A value that changes whenever the given jar file or a file in the given directory changes.
+     */
+    static long stamp(File source) throws IOException {
+        if (!source.isDirectory()) {
+            return source.lastModified() * 31 + source.length();
+        }
+        final long[] stamp = new long[]{1};
+        try (final Stream<Path> walk = Files.walk(source.toPath())) {
+            walk.filter(Files::isRegularFile).forEach(path -> {
+                final File file = path.toFile();
+                stamp[0] = stamp[0] * 31 + path.hashCode();
+                stamp[0] = stamp[0] * 31 + file.lastModified();
+                stamp[0] = stamp[0] * 31 + file.length();
+            });
+        }
+        return stamp[0];
+    }
+
+    private void addDir(File dir) throws IOException {
+        final Path base = dir.toPath();
+        final List<Path> paths;
+        try (final Stream<Path> walk = Files.walk(base)) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (final Path path : paths) {
+            final String name = base.relativize(path).toString().replace('\\', '/');
+            if (isServed(name)) {
+                final byte[] data = Files.readAllBytes(path);
+                final CRC32 crc = new CRC32();
+                crc.update(data);
+                add(name, data, crc.getValue(), path.toFile().lastModified());
+            }
+        }
+    }
+
+    private void addJar(File jar) throws IOException {
+        try (final JarFile file = new JarFile(jar)) {
+            final Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (entry.isDirectory() || !isServed(name)) {
+                    continue;
+                }
+                final byte[] data;
+                try (final InputStream in = file.getInputStream(entry)) {
+                    data = readAll(in, entry.getSize());
+                }
+                add(name, data, entry.getCrc(), entry.getTime());
+            }
+        }
+    }
+
+    private void add(String name, byte[] data, long crc, long lastModified) {
+        if (name.endsWith(".gz")) {
+            gzip.put(name.substring(0, name.length() - 3), data);
+        } else if (name.endsWith(".br")) {
+            brotli.put(name.substring(0, name.length() - 3), data);
+        } else {
+            contents.put("/" + name, new Content(name, data, crc, lastModified));
+        }
+    }
+
+    private static byte[] readAll(InputStream in, long size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(size < 0 ? 8192 : (int) size);
+        final byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isServed(String name) {
+        if ("index.html".equals(name)) {
+            return true;
+        }
+        //the files of a named spec are under [name]/
+        final int slash = name.indexOf('/');
+        for (final String prefix : PREFIXES) {
+            if (name.startsWith(prefix) || (slash > 0 && name.startsWith(prefix, slash + 1) && !name.startsWith("META-INF/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Content get(String path) {
+        final Content content = contents.get("/".equals(path) ? "/index.html" : path);
+        if (content == null) {
+            //the models of the dependencies are only packaged once, for all specs
+            final int pos = path.indexOf("/" + DEPENDENCIES);
+            if (pos > 0 && path.lastIndexOf('/', pos - 1) == 0) {
+                return contents.get(path.substring(pos));
+            }
+        }
+        return content;
+    }
+
+    int size() {
+        return contents.size();
+    }
+
+    static class Content {
+        final String name;
+        final byte[] data;
+        final String etag;
+        final long lastModified;
+        final String mimeType;
+        byte[] gzip;
+        byte[] brotli;
+
+        Content(String name, byte[] data, long crc, long lastModified) {
+            this.name = name;
+            this.data = data;
+            this.etag = "\"" + Long.toHexString(crc) + "-" + Integer.toHexString(data.length) + "\"";
+            //http dates have a resolution of seconds
+            this.lastModified = lastModified / 1000 * 1000;
+            this.mimeType = mimeType(name);
+        }
+
+        private static String mimeType(String name) {
+            final int dot = name.lastIndexOf('.');
+            final String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+            final String extra = EXTRA_MIME_TYPES.get(ext);
+            if (extra != null) {
+                return extra;
+            }
+            final String type = MIME_TYPES.getMimeByExtension(name);
+            return type == null ? "application/octet-stream" : type;
+        }
+
+        /**
+         * The ETag of the given encoding. Every encoding needs its own tag, as their bytes differ.
+         */
+        String etag(String encoding) {
+            return encoding == null ? etag : etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+    }
+}
@@ -4,8 +4,13 @@ import org.eclipse.jetty.server.*;
 import org.eclipse.jetty.server.handler.*;
 import org.eclipse.jetty.util.FutureCallback;
 import org.eclipse.jetty.util.UrlEncoded;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.util.resource.Resource;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -13,13 +18,23 @@ import java.awt.*;
 import java.io.*;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+/**
+ * Serves the API documentation contained in the api jar.
+ * The server is configured by arguments of the form --name=value or by system properties apikana.name,
+ * see {@link Options} for the available options.
+ */
 public class ApiServer {
     private static final int PORT = 8334;
+    private static final int ASYNC_THRESHOLD = 32 * 1024;
     private static PrintWriter out;
 
     public static void main(String[] args) throws Exception {
@@ -28,10 +43,15 @@ public class ApiServer {
             try {
                 preloadClasses();
 
-                final Server server = new Server(PORT);
-                server.setHandler(createHandlers());
+                final Options options = new Options(args);
+                final Server server = createServer(options);
+                final ServerMetrics metrics = new ServerMetrics(server.getThreadPool());
+                server.setRequestLog(metrics);
+                server.setHandler(createHandlers(options, metrics));
                 server.start();
-                Desktop.getDesktop().browse(new URI("http://localhost:" + PORT));
+                if (options.bool("browser", true)) {
+                    Desktop.getDesktop().browse(new URI("http://localhost:" + options.integer("port", PORT)));
+                }
                 server.join();
             } catch (Throwable e) {
                 e.printStackTrace(out);
@@ -39,12 +59,54 @@ public class ApiServer {
         }
     }
 
-    private static HandlerList createHandlers() {
+    static Server createServer(Options options) {
+        final Server server = new Server(threadPool(options));
+        final ServerConnector connector = new ServerConnector(server, options.integer("acceptors", -1), options.integer("selectors", -1));
+        connector.setHost(options.string("host", null));
+        connector.setPort(options.integer("port", PORT));
+        connector.setAcceptQueueSize(options.integer("accept-queue", 0));
+        server.addConnector(connector);
+        return server;
+    }
+
+    private static ThreadPool threadPool(Options options) {
+        if (options.bool("virtual-threads", false)) {
+            try {
+                //only available on JDK 21+, the server is compiled for older versions
+                final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                out.println("Using virtual threads.");
+                return new ExecutorThreadPool(executor);
+            } catch (ReflectiveOperationException e) {
+                out.println("Virtual threads are not available on Java " + System.getProperty("java.version") + ", using a thread pool.");
+            }
+        }
+        final QueuedThreadPool pool = new QueuedThreadPool(options.integer("max-threads", 200), options.integer("min-threads", 8));
+        pool.setName("api-server");
+        return pool;
+    }
+
+    private static HandlerList createHandlers(Options options, ServerMetrics metrics) throws IOException {
         final HandlerList handlers = new HandlerList();
-        handlers.setHandlers(new Handler[]{
-                new RootResourceHandler(),
-                new ShutdownHandler("666", true, true),
-                new DefaultHandler()});
+        handlers.addHandler(new MetricsHandler(metrics));
+        if (options.bool("closable", false)) {
+            handlers.addHandler(new CloseHandler());
+        }
+        final String source = options.string("content", null);
+        final File contentSource = source == null ? ApiContent.ownJar() : new File(source);
+        if (contentSource != null) {
+            final AtomicReference<ApiContent> content = new AtomicReference<>(ApiContent.of(contentSource));
+            out.println("Indexed " + content.get().size() + " files of " + contentSource + ".");
+            handlers.addHandler(new ContentHandler(content, options.bool("async", true), metrics));
+            final int interval = options.integer("reload-interval", 2000);
+            if (interval > 0) {
+                final Thread reloader = new Thread(new ContentReloader(content, interval), "content-reloader");
+                reloader.setDaemon(true);
+                reloader.start();
+            }
+        }
+        handlers.addHandler(new RootResourceHandler());
+        handlers.addHandler(new ShutdownHandler("666", true, true));
+        handlers.addHandler(new DefaultHandler());
         return handlers;
     }
 
@@ -56,6 +118,332 @@ public class ApiServer {
         Class.forName("org.eclipse.jetty.io.ManagedSelector$CloseEndPoints");
     }
 
+    /**
+     * Serves /metrics in the prometheus text format and /health.
+     */
+    static class MetricsHandler extends AbstractHandler {
+        private final ServerMetrics metrics;
+
+        MetricsHandler(ServerMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if ("/metrics".equals(target)) {
+                response.setContentType("text/plain;version=0.0.4;charset=utf-8");
+                response.setHeader("Cache-Control", "no-store");
+                response.getWriter().print(metrics.render());
+                baseRequest.setHandled(true);
+            } else if ("/health".equals(target)) {
+                final boolean healthy = metrics.isHealthy();
+                response.setStatus(healthy ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setContentType("application/json");
+                response.setHeader("Cache-Control", "no-store");
+                response.getWriter().print(healthy ? "{\"status\":\"UP\"}" : "{\"status\":\"DOWN\",\"reason\":\"low on threads\"}");
+                baseRequest.setHandled(true);
+            }
+        }
+    }
+
+    /**
+     * Stops the server on /close, like the server started by apikana. The stop-server goal of the maven plugin calls it.
+     */
+    static class CloseHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+            if ("/close".equals(target)) {
+                baseRequest.setHandled(true);
+                //not in the request thread, it would wait for itself to finish
+                new Thread(() -> {
+                    try {
+                        getServer().stop();
+                    } catch (Exception e) {
+                        e.printStackTrace(out);
+                    }
+                }, "close").start();
+            }
+        }
+    }
+
+    /**
+     * Serves the indexed content from memory, with ETags, conditional requests, ranges and precompressed variants.
+     */
+    static class ContentHandler extends AbstractHandler {
+        private final AtomicReference<ApiContent> index;
+        private final boolean async;
+        private final ServerMetrics metrics;
+
+        ContentHandler(AtomicReference<ApiContent> index, boolean async, ServerMetrics metrics) {
+            this.index = index;
+            this.async = async;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            final boolean head = "HEAD".equals(request.getMethod());
+            if (!head && !"GET".equals(request.getMethod())) {
+                return;
+            }
+            //a request uses one snapshot, even if a new one is swapped in meanwhile
+            final ApiContent.Content content = index.get().get(target);
+            if (content == null) {
+                metrics.indexMiss();
+                return;
+            }
+            metrics.indexHit();
+            baseRequest.setHandled(true);
+            final String encoding = encoding(request.getHeader("Accept-Encoding"), content);
+            final byte[] data = "br".equals(encoding) ? content.brotli : "gzip".equals(encoding) ? content.gzip : content.data;
+            final String etag = content.etag(encoding);
+            response.setContentType(content.mimeType);
+            response.setHeader("ETag", etag);
+            response.setHeader("Cache-Control", "no-cache");
+            response.setDateHeader("Last-Modified", content.lastModified);
+            if (content.gzip != null || content.brotli != null) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            if (isNotModified(request, content, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            int from = 0;
+            int to = data.length;
+            if (encoding == null) {
+                response.setHeader("Accept-Ranges", "bytes");
+                final String range = request.getHeader("Range");
+                final String ifRange = request.getHeader("If-Range");
+                if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                    final int[] bounds = range(range, data.length);
+                    if (bounds == null) {
+                        response.setHeader("Content-Range", "bytes */" + data.length);
+                        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    if (bounds.length == 2) {
+                        from = bounds[0];
+                        to = bounds[1];
+                        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                        response.setHeader("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + data.length);
+                    }
+                }
+            } else {
+                response.setHeader("Content-Encoding", encoding);
+            }
+            response.setContentLength(to - from);
+            if (!head) {
+                send(baseRequest, ByteBuffer.wrap(data, from, to - from).asReadOnlyBuffer());
+            }
+        }
+
+        private void send(Request request, ByteBuffer content) throws IOException {
+            if (!async || content.remaining() < ASYNC_THRESHOLD) {
+                //small contents fit into the socket buffer, a blocking write does not block
+                request.getResponse().getHttpOutput().sendContent(content);
+                return;
+            }
+            //don't hold a thread while a slow client receives a large content
+            final AsyncContext context = request.startAsync();
+            request.getResponse().getHttpOutput().sendContent(content, new Callback() {
+                @Override
+                public void succeeded() {
+                    context.complete();
+                }
+
+                @Override
+                public void failed(Throwable x) {
+                    context.complete();
+                }
+            });
+        }
+
+        private static boolean isNotModified(HttpServletRequest request, ApiContent.Content content, String etag) {
+            final String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                if ("*".equals(ifNoneMatch.trim())) {
+                    return true;
+                }
+                for (final String tag : ifNoneMatch.split(",")) {
+                    final String t = tag.trim();
+                    if (t.equals(etag) || (t.startsWith("W/") && t.substring(2).equals(etag))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            try {
+                final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                return ifModifiedSince >= 0 && content.lastModified <= ifModifiedSince;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return the preferred encoding accepted by the client that is available, or null for the identity.
+         */
+        static String encoding(String acceptEncoding, ApiContent.Content content) {
+            if (acceptEncoding == null) {
+                return null;
+            }
+            boolean br = false;
+            boolean gzip = false;
+            for (final String part : acceptEncoding.split(",")) {
+                final String[] params = part.split(";");
+                final String name = params[0].trim().toLowerCase(Locale.ENGLISH);
+                boolean accepted = true;
+                for (int i = 1; i < params.length; i++) {
+                    final String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            accepted = Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            accepted = false;
+                        }
+                    }
+                }
+                if ("br".equals(name)) {
+                    br = accepted;
+                } else if ("gzip".equals(name) || "x-gzip".equals(name)) {
+                    gzip = accepted;
+                }
+            }
+            return br && content.brotli != null ? "br" : gzip && content.gzip != null ? "gzip" : null;
+        }
+
+        /**
+         * Parse a single byte range.
+         *
+         * @return {from, to} (to exclusive), an empty array if the header is not supported and should be ignored,
+         * or null if the range is not satisfiable.
+         */
+        static int[] range(String header, int length) {
+            if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+                return new int[0];
+            }
+            final String spec = header.substring(6).trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return new int[0];
+            }
+            try {
+                final String start = spec.substring(0, dash).trim();
+                final String end = spec.substring(dash + 1).trim();
+                if (start.isEmpty()) {
+                    final long suffix = Long.parseLong(end);
+                    return suffix <= 0 || length == 0 ? null : new int[]{(int) Math.max(0, length - suffix), length};
+                }
+                final long from = Long.parseLong(start);
+                final long last = end.isEmpty() ? length - 1 : Long.parseLong(end);
+                if (last < from) {
+                    //syntactically invalid, ignore it
+                    return new int[0];
+                }
+                return from >= length ? null : new int[]{(int) from, (int) Math.min(last, length - 1) + 1};
+            } catch (NumberFormatException e) {
+                return new int[0];
+            }
+        }
+    }
+
+    /**
+     * Replaces the content snapshot when its source has changed and then stayed the same for one interval.
+     */
+    static class ContentReloader implements Runnable {
+        private final AtomicReference<ApiContent> content;
+        private final long interval;
+
+        ContentReloader(AtomicReference<ApiContent> content, long interval) {
+            this.content = content;
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            long pending = 0;
+            boolean changed = false;
+            while (true) {
+                try {
+                    Thread.sleep(interval);
+                    final ApiContent current = content.get();
+                    final long stamp = ApiContent.stamp(current.source);
+                    if (stamp == current.stamp) {
+                        changed = false;
+                    } else if (!changed || stamp != pending) {
+                        //wait until the source is completely written
+                        changed = true;
+                        pending = stamp;
+                    } else {
+                        changed = false;
+                        final ApiContent snapshot = ApiContent.of(current.source);
+                        content.set(snapshot);
+                        out.println("Reloaded " + snapshot.size() + " files of " + snapshot.source + ".");
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    //keep the old snapshot, try again on the next change
+                    e.printStackTrace(out);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Options given as --name=value arguments, falling back to system properties apikana.name.
+     * <ul>
+     * <li>port: The port to listen to (default 8334).</li>
+     * <li>host: The address to bind to (default all addresses).</li>
+     * <li>acceptors, selectors: The number of acceptor and selector threads (default chosen by jetty).</li>
+     * <li>accept-queue: The size of the accept queue (default chosen by the OS).</li>
+     * <li>min-threads, max-threads: The size of the thread pool (default 8 and 200).</li>
+     * <li>virtual-threads: Handle requests in virtual threads, needs Java 21+ (default false).</li>
+     * <li>async: Send large contents asynchronously (default true).</li>
+     * <li>content: The jar file or directory to serve (default this jar).</li>
+     * <li>reload-interval: Milliseconds between checks if the content has changed, 0 to never reload (default 2000).</li>
+     * <li>browser: Open the browser on startup (default true).</li>
+     * <li>closable: Stop the server on a request to /close (default false).</li>
+     * </ul>
+     */
+    static class Options {
+        private final Map<String, String> values = new HashMap<>();
+
+        Options(String[] args) {
+            for (final String arg : args) {
+                if (arg.startsWith("--")) {
+                    final int eq = arg.indexOf('=');
+                    if (eq < 0) {
+                        values.put(arg.substring(2), "true");
+                    } else {
+                        values.put(arg.substring(2, eq), arg.substring(eq + 1));
+                    }
+                }
+            }
+        }
+
+        String string(String name, String defaultValue) {
+            final String value = values.get(name);
+            return value != null ? value : System.getProperty("apikana." + name, defaultValue);
+        }
+
+        int integer(String name, int defaultValue) {
+            final String value = string(name, null);
+            try {
+                return value == null ? defaultValue : Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Option " + name + " must be a number, but is '" + value + "'");
+            }
+        }
+
+        boolean bool(String name, boolean defaultValue) {
+            final String value = string(name, null);
+            return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+        }
+    }
+
     static class RootResourceHandler extends ResourceHandler {
         @Override
         public Resource getResource(String path) {
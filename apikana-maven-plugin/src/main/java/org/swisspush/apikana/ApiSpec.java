@@ -0,0 +1,94 @@
+package org.swisspush.apikana;
+
+/**
+ * One of several independent APIs of a module, configured as
+ * <pre>
+ * &lt;apiSpecs>
+ *     &lt;apiSpec>
+ *         &lt;name>public&lt;/name>
+ *         &lt;api>src/openapi/public.yaml&lt;/api>
+ *     &lt;/apiSpec>
+ * &lt;/apiSpecs>
+ * </pre>
+ * Each API is generated into target/api/[name].
+ */
+public class ApiSpec {
+    /**
+     * The name of the API, used as directory name. Mandatory.
+     */
+    private String name;
+
+    /**
+     * The main API file, by default src/openapi/[name].yaml.
+     */
+    private String api;
+
+    /**
+     * The directory containing the models, by default the models directory of the module.
+     */
+    private String models;
+
+    /**
+     * The java package, by default the java package of the module followed by the name.
+     * Names that are no valid java identifiers are adjusted, e.g. public becomes public_.
+     */
+    private String javaPackage;
+
+    /**
+     * The path prefix to be used in the generated *Paths.java file, by default the path prefix of the module.
+     */
+    private String pathPrefix;
+
+    public ApiSpec() {
+    }
+
+    ApiSpec(String name, String api, String models, String javaPackage, String pathPrefix) {
+        this.name = name;
+        this.api = api;
+        this.models = models;
+        this.javaPackage = javaPackage;
+        this.pathPrefix = pathPrefix;
+    }
+
+    /**
+     * @return the name or null for the single API of a module without apiSpecs.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getApi() {
+        return api;
+    }
+
+    public String getModels() {
+        return models;
+    }
+
+    public String getJavaPackage() {
+        return javaPackage;
+    }
+
+    public String getPathPrefix() {
+        return pathPrefix;
+    }
+
+    /**
+     * @return the output directory relative to the project.
+     */
+    String output() {
+        return name == null ? AbstractApikanaMojo.OUTPUT : AbstractApikanaMojo.OUTPUT + "/" + name;
+    }
+
+    /**
+     * @return the prefix of the files of this API in the created jars.
+     */
+    String prefix() {
+        return name == null ? "" : name + "/";
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "API" : "API " + name;
+    }
+}
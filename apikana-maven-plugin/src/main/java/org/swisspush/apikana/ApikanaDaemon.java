@@ -0,0 +1,202 @@
+package org.swisspush.apikana;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client of a long-lived apikana node process, which is started on demand.
+ * Its port file lives outside of the build directory, so a daemon is found and stopped again even after mvn clean.
+ */
+class ApikanaDaemon {
+    private static final String SCRIPT = "apikana-daemon.js";
+    private static final int START_TIMEOUT = 20000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final File nodeDir;
+    private final File dir;
+    private final String identity;
+    private final long idleMillis;
+    private final int timeoutMillis;
+    private final Log log;
+
+    /**
+     * @param nodeDir       The directory containing node_modules/apikana.
+     * @param dir           The directory for the state of the daemon.
+     * @param version       The apikana version.
+     * @param timeoutMillis The maximum time to wait for output of the daemon, 0 for no limit.
+     */
+    ApikanaDaemon(File nodeDir, File dir, String version, long idleMillis, int timeoutMillis, Log log) {
+        this.nodeDir = nodeDir;
+        this.dir = dir;
+        //a reinstalled apikana, e.g. after mvn clean, needs a new daemon
+        this.identity = version + "-" + new File(nodeDir, "node_modules/apikana/package.json").lastModified();
+        this.idleMillis = idleMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.log = log;
+    }
+
+    /**
+     * Run apikana in the daemon.
+     *
+     * @return false if the daemon is not available and apikana must be run the usual way.
+     * @throws IOException if apikana itself failed.
+     */
+    public boolean run(File node, File cwd, List<String> args) throws IOException {
+        final String[] info = connect(node);
+        if (info == null) {
+            log.warn("Could not start apikana daemon.");
+            return false;
+        }
+        final Map<String, Object> req = new HashMap<>();
+        req.put("token", info[1]);
+        req.put("cwd", cwd.getAbsolutePath());
+        req.put("args", args);
+        final Integer exit;
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info[0]))) {
+            socket.setSoTimeout(timeoutMillis);
+            send(socket, req);
+            exit = receive(socket);
+        } catch (SocketTimeoutException e) {
+            //the daemon is stuck and would stay busy
+            stop(info);
+            throw new IOException("apikana daemon did not answer within " + timeoutMillis / 1000 + " s.");
+        } catch (IOException e) {
+            log.warn("Problem talking to apikana daemon: " + e.getMessage());
+            return false;
+        }
+        if (exit == null) {
+            return false;
+        }
+        if (exit != 0) {
+            throw new IOException("apikana failed with exit code " + exit);
+        }
+        return true;
+    }
+
+    /**
+     * @return the port, token and identity of a running daemon of the current apikana version, started if needed,
+     * or null if it could not be started.
+     */
+    private String[] connect(File node) throws IOException {
+        //modules built in parallel or other builds on the same node directory must not start a daemon each
+        try {
+            return IoUtils.locked(new File(dir, "apikana-daemon.lock"), () -> {
+                final String[] info = info();
+                if (info != null && identity.equals(info[2])) {
+                    return info;
+                }
+                if (info != null) {
+                    log.info("apikana daemon has version " + info[2] + ", restarting it.");
+                    stop(info);
+                }
+                return start(node);
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not start apikana daemon.", e);
+        }
+    }
+
+    private Integer receive(Socket socket) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            final Map<String, Object> msg = mapper.readValue(line, Map.class);
+            if (msg.containsKey("busy")) {
+                log.info("apikana daemon is busy.");
+                return null;
+            }
+            if (msg.containsKey("out")) {
+                log.info(trimNewline((String) msg.get("out")));
+            }
+            if (msg.containsKey("err")) {
+                log.warn(trimNewline((String) msg.get("err")));
+            }
+            if (msg.containsKey("exit")) {
+                return ((Number) msg.get("exit")).intValue();
+            }
+        }
+        return null;
+    }
+
+    private String[] start(File node) throws IOException {
+        final File script = new File(dir, SCRIPT);
+        dir.mkdirs();
+        IoUtils.copy(getClass().getResourceAsStream("/" + SCRIPT), script.toPath());
+        Files.deleteIfExists(portFile().toPath());
+        log.info("Starting apikana daemon.");
+        new ProcessBuilder(node.getAbsolutePath(), script.getAbsolutePath(), portFile().getAbsolutePath(), Long.toString(idleMillis),
+                nodeDir.getAbsolutePath(), identity)
+                .directory(nodeDir)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(dir, "apikana-daemon.log"))
+                .start();
+        final long end = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < end) {
+            final String[] info = info();
+            if (info != null) {
+                return info;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while starting apikana daemon.");
+            }
+        }
+        return null;
+    }
+
+    private void stop(String[] info) {
+        final Map<String, Object> req = new HashMap<>();
+        req.put("token", info[1]);
+        req.put("command", "stop");
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info[0]))) {
+            send(socket, req);
+        } catch (IOException e) {
+            //it's not running anymore
+        }
+    }
+
+    private String[] info() throws IOException {
+        final File portFile = portFile();
+        if (!portFile.exists()) {
+            return null;
+        }
+        final String[] parts = new String(Files.readAllBytes(portFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        if (parts.length != 3) {
+            return null;
+        }
+        try (final Socket ignored = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(parts[0]))) {
+            return parts;
+        } catch (IOException | NumberFormatException e) {
+            //stale port file of a daemon that has been killed
+            return null;
+        }
+    }
+
+    private void send(Socket socket, Map<String, Object> req) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write((mapper.writeValueAsString(req) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private File portFile() {
+        return new File(dir, "apikana-daemon.port");
+    }
+
+    private static String trimNewline(String s) {
+        return s.endsWith("\n") ? s.substring(0, s.length() - 1) : s;
+    }
+}
@@ -0,0 +1,175 @@
+package org.swisspush.apikana;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+
+/**
+ * Computes the classes of a set of zip entries that are reachable from some root classes.
+ * A class references all classes named in its constant pool, be it as class, in a type descriptor or as a string constant,
+ * so classes loaded by reflection with a constant name are found too.
+ * Entries that are not classes are always kept.
+ */
+class ClassClosure {
+    private static final Pattern DESCRIPTOR = Pattern.compile("L([\\w/$]+);");
+    private static final String OWN_PACKAGE = ApiServer.class.getPackage().getName().replace('.', '/') + "/";
+
+    private final Map<String, ZipBuilder.Entry> available = new LinkedHashMap<>();
+    private final Map<String, byte[]> own = new HashMap<>();
+    private final Set<String> reachable = new LinkedHashSet<>();
+
+    ClassClosure(List<ZipBuilder.Entry> entries) {
+        for (final ZipBuilder.Entry entry : entries) {
+            available.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * Add a root class and everything reachable from it.
+     * Classes of this plugin's package are searched in the plugin itself.
+     */
+    public ClassClosure add(Class<?> root) throws IOException {
+        final Deque<String> todo = new ArrayDeque<>();
+        todo.add(root.getName().replace('.', '/'));
+        for (final ZipBuilder.Entry entry : available.values()) {
+            if (entry.name.startsWith("META-INF/services/") && !entry.name.endsWith("/")) {
+                for (final String line : new String(ZipReader.inflate(entry), StandardCharsets.UTF_8).split("\n")) {
+                    final String name = line.replaceAll("#.*", "").trim();
+                    if (name.length() > 0) {
+                        todo.add(name.replace('.', '/'));
+                    }
+                }
+            }
+        }
+        while (!todo.isEmpty()) {
+            final String name = todo.remove();
+            if (reachable.contains(name)) {
+                continue;
+            }
+            final byte[] data = classData(name);
+            if (data != null) {
+                reachable.add(name);
+                todo.addAll(references(data));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the names of all reachable classes, in the order they have been found.
+     */
+    public Set<String> classes() {
+        return reachable;
+    }
+
+    /**
+     * @return all non class entries and the reachable class entries.
+     */
+    public List<ZipBuilder.Entry> entries() {
+        final List<ZipBuilder.Entry> entries = new ArrayList<>();
+        for (final ZipBuilder.Entry entry : available.values()) {
+            if (!entry.name.endsWith(".class") || reachable.contains(entry.name.substring(0, entry.name.length() - 6))) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the classes of this plugin's package that are reachable.
+     */
+    public Map<String, byte[]> ownClasses() {
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (final String name : reachable) {
+            if (own.containsKey(name)) {
+                classes.put(name + ".class", own.get(name));
+            }
+        }
+        return classes;
+    }
+
+    private byte[] classData(String name) throws IOException {
+        final ZipBuilder.Entry entry = available.get(name + ".class");
+        if (entry != null) {
+            return ZipReader.inflate(entry);
+        }
+        if (name.startsWith(OWN_PACKAGE)) {
+            try (final InputStream in = ClassClosure.class.getResourceAsStream("/" + name + ".class")) {
+                if (in != null) {
+                    final byte[] data = IoUtils.readAll(in);
+                    own.put(name, data);
+                    return data;
+                }
+            }
+        }
+        return null;
+    }
+
+    static Set<String> references(byte[] classFile) throws IOException {
+        final Set<String> refs = new HashSet<>();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xcafebabe) {
+            throw new ZipException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        final int count = in.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    addNames(refs, in.readUTF());
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    //the referenced utf8 entries are handled by themselves
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new ZipException("Unknown constant pool tag " + tag);
+            }
+        }
+        return refs;
+    }
+
+    private static void addNames(Set<String> refs, String utf) {
+        //a plain class name, either internal or as used by Class.forName
+        if (utf.indexOf(';') < 0 && utf.indexOf(' ') < 0) {
+            refs.add(utf.replace('.', '/'));
+        }
+        if (utf.indexOf(';') >= 0) {
+            final Matcher m = DESCRIPTOR.matcher(utf);
+            while (m.find()) {
+                refs.add(m.group(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.swisspush.apikana;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Hashes of a set of named inputs (files, directories and plain values), to be compared with a manifest of a former run.
+ */
+class Fingerprint {
+    private final Properties hashes = new Properties();
+
+    public Fingerprint add(String key, File file) throws IOException {
+        final MessageDigest digest = digest();
+        if (file.isDirectory()) {
+            final Path base = file.toPath();
+            final List<Path> paths;
+            try (final Stream<Path> walk = Files.walk(base)) {
+                paths = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (final Path path : paths) {
+                digest.update(base.relativize(path).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                update(digest, path);
+            }
+        } else if (file.isFile()) {
+            update(digest, file.toPath());
+        }
+        hashes.setProperty(key, hex(digest.digest()));
+        return this;
+    }
+
+    public Fingerprint add(String key, String value) {
+        hashes.setProperty(key, value == null ? "" : value);
+        return this;
+    }
+
+    public boolean matches(File manifest) throws IOException {
+        return manifest.exists() && read(manifest).equals(hashes);
+    }
+
+    public String get(String key) {
+        return hashes.getProperty(key);
+    }
+
+    static Properties read(File manifest) throws IOException {
+        final Properties props = new Properties();
+        if (manifest.exists()) {
+            try (final InputStream in = new FileInputStream(manifest)) {
+                props.load(in);
+            }
+        }
+        return props;
+    }
+
+    public void write(File manifest) throws IOException {
+        manifest.getParentFile().mkdirs();
+        try (final OutputStream out = new FileOutputStream(manifest)) {
+            hashes.store(out, null);
+        }
+    }
+
+    static String sha1(String value) {
+        return hex(digest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String sha1(File file) throws IOException {
+        final MessageDigest digest = digest();
+        update(digest, file.toPath());
+        return hex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Path path) throws IOException {
+        try (final InputStream in = Files.newInputStream(path)) {
+            final byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                digest.update(buf, 0, read);
+            }
+        }
+    }
+
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        final StringBuilder s = new StringBuilder();
+        for (final byte b : bytes) {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+}
@@ -1,15 +1,31 @@
 package org.swisspush.apikana;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.*;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -20,9 +36,16 @@ import static org.twdata.maven.mojoexecutor.MojoExecutor.element;
  * Generate JSON schemas and a user documentation in HTML from the given swagger and typescript models.
  */
 @Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES,
-        requiresDependencyResolution = ResolutionScope.COMPILE)
+        requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class GenerateMojo extends AbstractApikanaMojo {
     private static final Logger LOG = LoggerFactory.getLogger(GenerateMojo.class);
+    private static final Map<String, String> TOOLCHAIN_CHECKSUMS = new ConcurrentHashMap<>();
+    private static final Set<String> JAVA_KEYWORDS = new HashSet<>(asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null", "_"));
 
     /**
      * The node version to be used.
@@ -58,13 +81,13 @@ public class GenerateMojo extends AbstractApikanaMojo {
      * The main API file (yaml or json).
      */
     @Parameter(defaultValue = "src/openapi/api.yaml", property = "apikana.api")
-    private String api;
+    protected String api;
 
     /**
      * The directory containing the models, if no API file is given.
      */
     @Parameter(defaultValue = "src/ts", property = "apikana.models")
-    private String models;
+    protected String models;
 
     /**
      * The java package that should be used.
@@ -89,19 +112,19 @@ public class GenerateMojo extends AbstractApikanaMojo {
      * The port of the HTTP server.
      */
     @Parameter(defaultValue = "8333", property = "apikana.port")
-    private int port;
+    protected int port;
 
     /**
      * If the API should be published via HTTP.
      */
     @Parameter(defaultValue = "true", property = "apikana.serve")
-    private boolean serve;
+    protected boolean serve;
 
     /**
      * If the browser should be opened to show the API.
      */
     @Parameter(defaultValue = "true", property = "apikana.open-browser")
-    private boolean openBrowser;
+    protected boolean openBrowser;
 
     /**
      * If the globally installed apikana node package should be used.
@@ -109,49 +132,441 @@ public class GenerateMojo extends AbstractApikanaMojo {
     @Parameter(defaultValue = "false", property = "apikana.global")
     private boolean global;
 
+    /**
+     * If apikana should only be run when one of its inputs has changed since the last run.
+     * If the API that is served has not changed, its last output is served without running apikana.
+     */
+    @Parameter(defaultValue = "true", property = "apikana.incremental")
+    private boolean incremental;
+
+    /**
+     * If apikana should be run in a long-lived node process that is reused by subsequent builds.
+     * This is only used if the API is not served and the locally installed apikana is used.
+     */
+    @Parameter(defaultValue = "false", property = "apikana.daemon")
+    private boolean daemon;
+
+    /**
+     * The number of minutes after which an unused apikana daemon terminates.
+     */
+    @Parameter(defaultValue = "30", property = "apikana.daemon-idle-timeout")
+    private int daemonIdleTimeout;
+
+    /**
+     * The number of minutes the apikana daemon may stay silent during a run before it is considered stuck and stopped, 0 for no limit.
+     */
+    @Parameter(defaultValue = "10", property = "apikana.daemon-timeout")
+    private int daemonTimeout;
+
+    /**
+     * If node and apikana should be installed once per reactor instead of once per module.
+     * The installation is shared by all modules using the same node, npm and apikana versions.
+     */
+    @Parameter(defaultValue = "false", property = "apikana.shared-toolchain")
+    private boolean sharedToolchain;
+
+    /**
+     * The number of minutes after which a node process is killed, 0 for no limit.
+     */
+    @Parameter(defaultValue = "0", property = "apikana.node-timeout")
+    private int nodeTimeout;
+
+    /**
+     * A prebuilt node and apikana installation as created by the package-toolchain goal, given as groupId:artifactId:version[:classifier].
+     * The default classifier is toolchain-[os]-[arch], e.g. toolchain-linux-x64.
+     * If set, nothing is downloaded from the node and npm registries.
+     */
+    @Parameter(property = "apikana.toolchain-artifact")
+    private String toolchainArtifact;
+
+    /**
+     * The expected SHA-1 checksum of the toolchain artifact. Mandatory if toolchainArtifact is set.
+     */
+    @Parameter(property = "apikana.toolchain-sha1")
+    private String toolchainSha1;
+
+    private File nodeDir;
+    private int servePort;
+    private PortReservation portReservation;
+    private List<ApiSpec> specs;
+
     public void execute() throws MojoExecutionException {
         try {
             if (isPom()) {
                 getLog().info("Packaging is pom. Skipping generation.");
                 mavenProject.getProperties().setProperty("jsonschema2pojo.skip", "true");
             } else {
-                unpackStyleDependencies(mavenProject.getParent());
-                unpackModelDependencies();
-                writeProjectProps();
-                if (global) {
-                    checkNodeInstalled();
-                } else {
-                    installNode();
-                    generatePackageJson(apikanaVersion);
-                    installApikana();
+                final List<ApiSpec> specs = specs();
+                try (final PortReservation reservation = reservePort()) {
+                    portReservation = reservation;
+                    servePort = reservation == null ? port : reservation.port();
+                    if (serve) {
+                        writeServePort(servePort);
+                    }
+                    //the preparation is shared by all specs
+                    unpackDependencies();
+                    writeApiMarker();
+                    writeProjectProps();
+                    nodeDir = setupNode();
+                    cleanOnLayoutChange(specs);
+                    generate(specs);
+                } finally {
+                    portReservation = null;
+                }
+                for (final ApiSpec spec : specs) {
+                    mavenProject.addCompileSourceRoot(file(spec.output() + "/model/java").getAbsolutePath());
                 }
-                deleteGeneratedClasses();
-                runApikana();
-                mavenProject.addCompileSourceRoot(file(OUTPUT + "/model/java").getAbsolutePath());
             }
         } catch (Exception e) {
             throw new MojoExecutionException("Problem running apikana", e);
         }
     }
 
-    private void deleteGeneratedClasses() throws IOException {
+    /**
+     * @return the APIs to generate, the first one is served.
+     */
+    protected List<ApiSpec> specs() throws MojoExecutionException {
+        if (specs == null) {
+            final List<ApiSpec> configured = apiSpecs();
+            if (configured.isEmpty()) {
+                specs = Collections.singletonList(new ApiSpec(null, api, models, javaPackage(), pathPrefix));
+            } else {
+                final List<ApiSpec> resolved = new ArrayList<>();
+                for (final ApiSpec spec : configured) {
+                    final String name = spec.getName();
+                    resolved.add(new ApiSpec(name,
+                            spec.getApi() != null ? spec.getApi() : "src/openapi/" + name + ".yaml",
+                            spec.getModels() != null ? spec.getModels() : models,
+                            spec.getJavaPackage() != null ? spec.getJavaPackage() : javaPackage() + "." + javaIdentifier(name),
+                            spec.getPathPrefix() != null ? spec.getPathPrefix() : pathPrefix));
+                }
+                specs = resolved;
+            }
+        }
+        return specs;
+    }
+
+    static String javaIdentifier(String name) {
+        final String id = name.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9_]", "_");
+        if (Character.isDigit(id.charAt(0))) {
+            return "_" + id;
+        }
+        //names like public or internal.. are common, but public is not allowed in a package name
+        return JAVA_KEYWORDS.contains(id) ? id + "_" : id;
+    }
+
+    private File setupNode() throws Exception {
+        if (global) {
+            checkNodeInstalled();
+            return working("");
+        }
+        if (toolchainArtifact != null && toolchainArtifact.trim().length() > 0) {
+            return installToolchainArtifact();
+        }
+        if (sharedToolchain) {
+            return installSharedToolchain();
+        }
+        final File dir = working("");
+        installNode(dir);
+        generatePackageJson(working("package.json"), mavenProject.getArtifactId(), apikanaVersion);
+        installApikana(dir);
+        return dir;
+    }
+
+    private void generate(List<ApiSpec> specs) throws Exception {
+        final List<ApiSpec> changed = new ArrayList<>();
+        final Map<ApiSpec, Fingerprint> fingerprints = new HashMap<>();
+        ApiSpec unchangedServed = null;
+        for (final ApiSpec spec : specs) {
+            final Fingerprint fingerprint = inputFingerprint(spec);
+            if (incremental && isUpToDate(spec, fingerprint)) {
+                getLog().info("Inputs of " + spec + " have not changed since last run. Skipping apikana.");
+                if (isServed(spec)) {
+                    unchangedServed = spec;
+                }
+            } else {
+                fingerprintManifest(spec).delete();
+                changed.add(spec);
+                fingerprints.put(spec, fingerprint);
+            }
+        }
+        runApikana(changed);
+        for (final ApiSpec spec : changed) {
+            publishSchemas(spec);
+            deleteGeneratedClasses(spec);
+            fingerprints.get(spec).write(fingerprintManifest(spec));
+        }
+        if (unchangedServed != null) {
+            serveOutput(unchangedServed);
+        }
+    }
+
+    /**
+     * Serve the last output with the api server in a separate process, as apikana would have done.
+     * Like the server of apikana, it keeps running after the build until the stop-server goal closes it.
+     */
+    private void serveOutput(ApiSpec spec) throws IOException, InterruptedException {
+        final String home = spec.prefix() + "ui/index.html?url=../model/openapi/api.yaml";
+        Files.write(file(OUTPUT + "/index.html").toPath(),
+                ("<!DOCTYPE html><html><head><meta http-equiv='refresh' content='0; url=" + home + "'></head></html>").getBytes(StandardCharsets.UTF_8));
+        final Set<File> classpath = new LinkedHashSet<>();
+        try {
+            classpath.add(new File(ApiServer.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        } catch (URISyntaxException e) {
+            throw new IOException("Could not find the api server classes", e);
+        }
+        classpath.addAll(IoUtils.classpathJars("org/eclipse/jetty"));
+        classpath.addAll(IoUtils.classpathJars("javax/servlet"));
+        if (portReservation != null) {
+            portReservation.handOver();
+        }
+        final Process server = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                "-cp", classpath.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)),
+                ApiServer.class.getName(), "--port=" + servePort, "--content=" + file(OUTPUT).getAbsolutePath(),
+                "--browser=" + openBrowser, "--closable")
+                .directory(target(""))
+                .redirectErrorStream(true)
+                .redirectOutput(target("apikana-server.log"))
+                .start();
+        //the port must be bound before the reservation ends, so no other module takes it
+        final long end = System.currentTimeMillis() + 10000;
+        while (server.isAlive() && System.currentTimeMillis() < end) {
+            try (final Socket socket = new Socket("127.0.0.1", servePort)) {
+                getLog().info("Serving the unchanged " + spec + " at http://localhost:" + servePort);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        getLog().warn("Could not serve " + spec + " on port " + servePort + ", see " + target("log.txt") + " and " + target("apikana-server.log"));
+    }
+
+    private void cleanOnLayoutChange(List<ApiSpec> specs) throws IOException {
+        //files of removed specs or of a former single API would end up in the jars and in jsonschema2pojo
+        final String layout = specs.stream().map(ApiSpec::prefix).collect(Collectors.joining(","));
+        final File file = target("apikana-specs.txt");
+        final String old = file.exists() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : "";
+        if (!old.equals(layout)) {
+            getLog().info("The API specs have changed. Cleaning " + OUTPUT);
+            FileUtils.deleteDirectory(file(OUTPUT));
+            final File[] manifests = target("").listFiles((dir, name) ->
+                    name.startsWith("apikana-inputs") || name.startsWith("apikana-schemas"));
+            if (manifests != null) {
+                for (final File manifest : manifests) {
+                    Files.delete(manifest.toPath());
+                }
+            }
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), layout.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void publishSchemas(ApiSpec spec) throws IOException {
+        //jsonschema2pojo reads target/api/model/json-schema-v3 recursively, so the schemas of all specs must be found there
+        if (spec.getName() != null) {
+            final File schemas = file(OUTPUT + "/model/json-schema-v3/" + spec.getName());
+            FileUtils.deleteDirectory(schemas);
+            final File generated = file(spec.output() + "/model/json-schema-v3");
+            if (generated.isDirectory()) {
+                FileUtils.copyDirectoryStructure(generated, schemas);
+            }
+        }
+    }
+
+    private void writeApiMarker() throws IOException {
+        //marks the main jar as apikana API, so dependent projects only look for models in marked artifacts
+        final File marker = new File(mavenProject.getBuild().getOutputDirectory(), API_MARKER);
+        final byte[] content = apiMarker();
+        if (marker.length() == content.length && Arrays.equals(Files.readAllBytes(marker.toPath()), content)) {
+            return;
+        }
+        marker.getParentFile().mkdirs();
+        try (final FileOutputStream out = new FileOutputStream(marker)) {
+            out.write(content);
+        }
+    }
+
+    private Fingerprint inputFingerprint(ApiSpec spec) throws IOException {
+        final boolean hasModels = spec.getModels() != null && spec.getModels().trim().length() > 0;
+        final Fingerprint fingerprint = new Fingerprint().add("api", file(spec.getApi()));
+        if (hasModels) {
+            fingerprint.add("models", file(spec.getModels()));
+        } else {
+            fingerprint.add("models", "none");
+        }
+        return fingerprint
+                .add("style", file(style))
+                .add("dependencies", apiDependencies(""))
+                .add("properties", working("properties.json"))
+                .add("param.name", spec.getName())
+                .add("param.api", spec.getApi())
+                .add("param.models", spec.getModels())
+                .add("param.style", style)
+                .add("param.javaPackage", spec.getJavaPackage())
+                .add("param.pathPrefix", spec.getPathPrefix())
+                .add("param.deploy", Boolean.toString(deploy))
+                .add("param.serve", Boolean.toString(isServed(spec)))
+                .add("param.openBrowser", Boolean.toString(openBrowser))
+                .add("param.global", Boolean.toString(global))
+                .add("param.apikanaVersion", apikanaVersion)
+                .add("param.logLevel", logLevel());
+    }
+
+    private boolean isUpToDate(ApiSpec spec, Fingerprint fingerprint) throws IOException {
+        final String[] outputs = file(spec.output()).list();
+        return outputs != null && outputs.length > 0 && fingerprint.matches(fingerprintManifest(spec));
+    }
+
+    private File fingerprintManifest(ApiSpec spec) {
+        return target(spec.getName() == null ? "apikana-inputs.properties" : "apikana-inputs-" + spec.getName() + ".properties");
+    }
+
+    private boolean isServed(ApiSpec spec) {
+        //only one server can run on the port
+        return serve && specs.get(0) == spec;
+    }
+
+    private void deleteGeneratedClasses(ApiSpec spec) throws IOException {
         //for some reason, jsonschema2pojo does not generate .java when .class already exists
-        final File outDir = new File(mavenProject.getBuild().getOutputDirectory() + "/" + javaPackage().replace('.', '/'));
-        if (outDir.exists()) {
-            FileUtils.cleanDirectory(outDir);
+        //so delete the classes of the changed schemas, or all of them if jsonschema2pojo removes the unchanged sources anyway
+        final Xpp3Dom config = jsonschema2pojoConfig();
+        final Xpp3Dom outputDir = config == null ? null : config.getChild("outputDirectory");
+        final Xpp3Dom removeOldOutput = config == null ? null : config.getChild("removeOldOutput");
+        final boolean keepUnchanged = incremental && (removeOldOutput == null || !"true".equals(removeOldOutput.getValue().trim()));
+        final ModelClasses classes = new ModelClasses(file(spec.output() + "/model/json-schema-v3"), spec.getJavaPackage(),
+                outputDir == null ? target("java-gen") : file(outputDir.getValue().trim()),
+                new File(mavenProject.getBuild().getOutputDirectory()));
+        final int deleted = classes.clean(target(spec.getName() == null ? "apikana-schemas.properties" : "apikana-schemas-" + spec.getName() + ".properties"), keepUnchanged);
+        if (deleted >= 0) {
+            getLog().info("Deleted " + deleted + " classes of changed schemas of " + spec + ".");
+        }
+    }
+
+    private Xpp3Dom jsonschema2pojoConfig() {
+        final Plugin plugin = mavenProject.getPlugin("org.jsonschema2pojo:jsonschema2pojo-maven-plugin");
+        if (plugin == null) {
+            return null;
+        }
+        if (plugin.getConfiguration() != null) {
+            return (Xpp3Dom) plugin.getConfiguration();
+        }
+        for (final PluginExecution execution : plugin.getExecutions()) {
+            if (execution.getConfiguration() != null) {
+                return (Xpp3Dom) execution.getConfiguration();
+            }
         }
+        return null;
     }
 
-    private void installNode() throws MojoExecutionException {
-        executeFrontend("install-node-and-npm", configuration(
-                element("downloadRoot", downloadRoot),
-                element("nodeVersion", nodeVersion),
-                element("npmVersion", npmVersion)
-        ));
+    private File installToolchainArtifact() throws Exception {
+        if (toolchainSha1 == null || toolchainSha1.trim().length() == 0) {
+            //the local repository normally doesn't keep checksum files, so the expected checksum must be configured
+            throw new MojoExecutionException("toolchainSha1 must be set if a toolchainArtifact is used.");
+        }
+        final String[] parts = toolchainArtifact.trim().split(":");
+        if (parts.length < 3 || parts.length > 4) {
+            throw new MojoExecutionException("toolchainArtifact must be groupId:artifactId:version[:classifier], but is " + toolchainArtifact);
+        }
+        final File file = resolveArtifact(parts[0], parts[1], parts[2], parts.length > 3 ? parts[3] : PackageToolchainMojo.platformClassifier());
+        //hashing a large toolchain takes a while, do it only once per build
+        final String sha1 = TOOLCHAIN_CHECKSUMS.computeIfAbsent(file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length(), k -> {
+            try {
+                return Fingerprint.sha1(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        verifyChecksum(file, sha1);
+        final File dir = sharedCache("toolchain/" + sha1);
+        if (dir.exists()) {
+            getLog().info("Using toolchain " + dir);
+            return dir;
+        }
+        getLog().info("Extracting toolchain " + file.getName() + " into " + dir);
+        dir.getParentFile().mkdirs();
+        final Path temp = Files.createTempDirectory(dir.getParentFile().toPath(), "extract");
+        try {
+            ZipReader.extract(file, temp);
+            //the directory is complete or not there at all, so concurrent builds never see a partial toolchain
+            Files.move(temp, dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            if (!dir.exists()) {
+                throw e;
+            }
+        } finally {
+            if (Files.exists(temp)) {
+                FileUtils.deleteDirectory(temp.toFile());
+            }
+        }
+        return dir;
+    }
+
+    private void verifyChecksum(File file, String sha1) throws MojoExecutionException {
+        if (!toolchainSha1.trim().equalsIgnoreCase(sha1)) {
+            throw new MojoExecutionException("Checksum of toolchain " + file + " is " + sha1 + ", but " + toolchainSha1.trim() + " was expected.");
+        }
     }
 
-    private void installApikana() throws IOException, MojoExecutionException {
-        final File apikanaPackage = working("node_modules/apikana/package.json");
+    protected byte[] toolchainPackageJson() throws IOException {
+        final Map<String, Object> pack = new HashMap<>();
+        fillPackageJson(pack, "apikana-toolchain", apikanaVersion);
+        return new ObjectMapper().writer().withDefaultPrettyPrinter().writeValueAsBytes(pack);
+    }
+
+    private File installSharedToolchain() throws Exception {
+        final byte[] packageJson = toolchainPackageJson();
+        final String key = Fingerprint.sha1(nodeVersion + "|" + npmVersion + "|" + apikanaVersion + "|" + npmOptions + "|"
+                + downloadRoot + "|" + new String(packageJson, StandardCharsets.UTF_8));
+        final File dir = reactorTarget("apikana-toolchain/" + key.substring(0, 12));
+        final File ready = new File(dir, "ready");
+        return IoUtils.locked(new File(dir.getPath() + ".lock"), () -> {
+            if (ready.exists()) {
+                getLog().info("Using shared toolchain " + dir);
+            } else {
+                getLog().info("Installing shared toolchain into " + dir);
+                dir.mkdirs();
+                Files.write(new File(dir, "package.json").toPath(), packageJson);
+                installNode(dir);
+                installApikana(dir);
+                ready.createNewFile();
+            }
+            return dir;
+        });
+    }
+
+    private PortReservation reservePort() throws IOException {
+        if (!serve || !isParallelBuild()) {
+            return null;
+        }
+        //modules built in parallel must not serve on the same port
+        final PortReservation reservation = PortReservation.reserve(port, 100);
+        getLog().info("Serving API on port " + reservation.port());
+        return reservation;
+    }
+
+    /**
+     * Record the port of the server, so the stop-server goal finds it.
+     */
+    protected void writeServePort(int port) throws IOException {
+        final File file = target(SERVE_PORT);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), Integer.toString(port).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    protected void installNode(File dir) throws Exception {
+        //the node download cache in the local repository is shared by all builds
+        localRepositoryLock("node-install.lock", () -> {
+            executeFrontend("install-node-and-npm", configuration(
+                    element("downloadRoot", downloadRoot),
+                    element("nodeVersion", nodeVersion),
+                    element("npmVersion", npmVersion)
+            ), dir);
+            return null;
+        });
+    }
+
+    protected void installApikana(File dir) throws Exception {
+        final File apikanaPackage = new File(dir, "node_modules/apikana/package.json");
         if (apikanaPackage.exists()) {
             Map pack = new ObjectMapper().readValue(apikanaPackage, Map.class);
             final String version = (String) pack.get("version");
@@ -160,38 +575,124 @@ public class GenerateMojo extends AbstractApikanaMojo {
                 return;
             }
         }
-        executeFrontend("npm", configuration(element("arguments", npmOptions() + "install")));
+        //older npm versions don't support concurrent access to their cache
+        localRepositoryLock("npm-install.lock", () -> {
+            final NodeLauncher launcher = nodeLauncher(dir);
+            final File npm = launcher.npmScript();
+            if (launcher.isAvailable() && npm != null) {
+                final List<String> args = new ArrayList<>();
+                args.add(npm.getAbsolutePath());
+                if (file(".npmrc").exists()) {
+                    args.add("--userconfig");
+                    args.add(file(".npmrc").getAbsolutePath());
+                }
+                //the frontend plugin passes the maven proxy settings to npm, so must we
+                args.addAll(npmProxyArgs());
+                args.addAll(asList(npmOptions().trim().split("\\s+")));
+                args.add("install");
+                args.removeIf(String::isEmpty);
+                launcher.run(dir, args);
+            } else {
+                executeFrontend("npm", configuration(element("arguments", npmOptions() + "install")), dir);
+            }
+            return null;
+        });
     }
 
-    private void runApikana() throws Exception {
-        final List<String> cmd = new ArrayList<>(asList("apikana start",
-                relative(working(""), file("")),
-                global ? "" : "--",
-                "--api=" + api,
-                models != null && models.trim().length() > 0 ? "--models=" + models : "",
-                "--target=" + relative(working(""), file(OUTPUT)),
-                "--style=" + style,
-                "--javaPackage=" + javaPackage(),
-                "--deploy=" + deploy,
-                "--port=" + port,
-                "--serve=" + serve,
-                "--openBrowser=" + openBrowser,
-                "--config=properties.json",
-                "--dependencyPath=" + relative(working(""), apiDependencies("")),
-                "--minVersion=" + apikanaVersion,
-                "--log=" + logLevel()));
-        if (pathPrefix != null && !"null".equals(pathPrefix)) {
-            cmd.add("--pathPrefix=" + pathPrefix);
+    protected void runApikana(List<ApiSpec> specs) throws Exception {
+        final NodeLauncher launcher = nodeLauncher(nodeDir);
+        //only separate node processes can run in parallel, the frontend plugin can't
+        if (specs.size() <= 1 || global || !launcher.isAvailable() || launcher.packageScript("apikana", "apikana") == null) {
+            for (final ApiSpec spec : specs) {
+                runApikana(spec, daemon);
+            }
+            return;
         }
-        final String cmdLine = cmd.stream().collect(Collectors.joining(" "));
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(specs.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            parallel(executor, specs, spec -> {
+                try {
+                    runApikana(spec, false);
+                    return null;
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Problem running apikana for " + spec, e);
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runApikana(ApiSpec spec, boolean useDaemon) throws Exception {
+        final List<String> args = apikanaArgs(spec);
+        if (useDaemon && !global && !isServed(spec) && runApikanaDaemon(args)) {
+            return;
+        }
+        if (isServed(spec) && portReservation != null) {
+            //apikana binds the port itself
+            portReservation.handOver();
+        }
+        final NodeLauncher launcher = nodeLauncher(nodeDir);
+        final File script = global ? null : launcher.packageScript("apikana", "apikana");
+        if (launcher.isAvailable() && script != null) {
+            //run the apikana script directly, without an npm process in between
+            final List<String> nodeArgs = new ArrayList<>();
+            nodeArgs.add(script.getAbsolutePath());
+            nodeArgs.add("start");
+            nodeArgs.addAll(args);
+            launcher.run(nodeDir, nodeArgs);
+            return;
+        }
+        final String cmdLine = "apikana start " + relative(nodeDir, file("")) + (global ? " " : " -- ")
+                + args.stream().skip(1).collect(Collectors.joining(" "));
         if (global) {
             final Process apikana = shellCommand(working(""), cmdLine).inheritIO().start();
             if (apikana.waitFor() != 0) {
                 throw new IOException();
             }
         } else {
-            executeFrontend("npm", configuration(element("arguments", npmOptions() + "run " + cmdLine)));
+            executeFrontend("npm", configuration(element("arguments", npmOptions() + "run " + cmdLine)), nodeDir);
+        }
+    }
+
+    private boolean runApikanaDaemon(List<String> args) throws IOException {
+        final List<String> daemonArgs = new ArrayList<>(args);
+        daemonArgs.add(0, "start");
+        //not in the build directory, so mvn clean does not orphan a running daemon
+        final File stateDir = sharedCache("daemon/" + Fingerprint.sha1(nodeDir.getAbsolutePath()).substring(0, 12));
+        return new ApikanaDaemon(nodeDir, stateDir, apikanaVersion, TimeUnit.MINUTES.toMillis(daemonIdleTimeout),
+                (int) TimeUnit.MINUTES.toMillis(daemonTimeout), getLog())
+                .run(NodeLauncher.nodeBinary(nodeDir), nodeDir, daemonArgs);
+    }
+
+    private NodeLauncher nodeLauncher(File dir) {
+        return new NodeLauncher(dir, TimeUnit.MINUTES.toMillis(nodeTimeout), getLog());
+    }
+
+    private List<String> apikanaArgs(ApiSpec spec) {
+        final boolean served = isServed(spec);
+        final List<String> args = new ArrayList<>(asList(
+                relative(nodeDir, file("")),
+                "--api=" + spec.getApi(),
+                spec.getModels() != null && spec.getModels().trim().length() > 0 ? "--models=" + spec.getModels() : "",
+                "--target=" + relative(nodeDir, file(spec.output())),
+                "--style=" + style,
+                "--javaPackage=" + spec.getJavaPackage(),
+                "--deploy=" + deploy,
+                "--port=" + servePort,
+                "--serve=" + served,
+                "--openBrowser=" + (served && openBrowser),
+                "--config=" + relative(nodeDir, working("properties.json")),
+                "--dependencyPath=" + relative(nodeDir, apiDependencies("")),
+                "--minVersion=" + apikanaVersion,
+                "--log=" + logLevel()));
+        if (spec.getPathPrefix() != null && !"null".equals(spec.getPathPrefix())) {
+            args.add("--pathPrefix=" + spec.getPathPrefix());
         }
+        args.removeIf(String::isEmpty);
+        return args;
     }
 
     private String logLevel() {
@@ -1,110 +1,98 @@
 package org.swisspush.apikana;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class IoUtils {
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+    private static final int BUFFER_SIZE = 16 * 1024;
+
     private IoUtils() {
     }
 
-    public static void copy(InputStream in, OutputStream out) throws IOException {
-        try (final InputStream i = in) {
-            final byte[] buf = new byte[1024];
-            int read;
-            while ((read = i.read(buf)) > 0) {
-                out.write(buf, 0, read);
+    /**
+     * Execute the action while holding an exclusive lock on the given file.
+     * The lock is held against other threads of this JVM as well as against other processes.
+     */
+    public static <T> T locked(File lockFile, Callable<T> action) throws Exception {
+        synchronized (LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), k -> new Object())) {
+            lockFile.getParentFile().mkdirs();
+            try (final FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 final FileLock ignored = channel.lock()) {
+                return action.call();
             }
         }
     }
 
-    public static void addZipsToZip(JarOutputStream zs, String base) throws IOException {
-        final Enumeration<URL> resources = IoUtils.class.getClassLoader().getResources(base);
-        while (resources.hasMoreElements()) {
-            final URL url = resources.nextElement();
-            final String path = url.getPath();
-            final int jarEnd = path.indexOf(".jar!/");
-            if (jarEnd > 0) {
-                addZipToZip(zs, path.substring(5, jarEnd + 4));
+    /**
+     * Copy the input stream into the output stream. The input stream is closed, the output stream is not.
+     */
+    public static void copy(InputStream in, OutputStream out) throws IOException {
+        try (final InputStream source = in) {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = source.read(buf)) >= 0) {
+                out.write(buf, 0, read);
             }
         }
     }
 
-    private static void addZipToZip(ZipOutputStream zs, String zip) throws IOException {
-        try (final ZipFile file = new ZipFile(new File(zip))) {
-            final Enumeration<? extends ZipEntry> entries = file.entries();
-            while (entries.hasMoreElements()) {
-                final ZipEntry entry = entries.nextElement();
-                addResourceToZip(zs, entry.getName(), file.getInputStream(entry));
-            }
+    /**
+     * Copy the input stream into the given file, which is created or replaced. The input stream is closed.
+     * Files.copy is used instead of direct buffers over channels, it was faster in IoUtilsBenchmark.
+     */
+    public static void copy(InputStream in, Path target) throws IOException {
+        try (final InputStream source = in) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Could not write " + target, e);
         }
     }
 
-    public static void addClassToZip(ZipOutputStream zs, Class<?> clazz) throws IOException {
-        final String name = clazz.getName().replace('.', '/') + ".class";
-        addResourceToZip(zs, name, IoUtils.class.getResourceAsStream("/" + name));
-    }
-
-
-    public static void addDirToZip(ZipOutputStream zs, File source, String target) throws IOException {
-        if (!source.exists()) {
-            return;
-        }
-
-        //add directory entries for all parents
-        int pos = 0;
-        while (true) {
-            pos = target.indexOf('/', pos + 1);
-            if (pos < 0) {
-                break;
-            }
-            addDirEntryToZip(zs, target.substring(0, pos));
+    /**
+     * Copy a file into another file, which is created or replaced.
+     * Files.copy was faster than FileChannel.transferTo in IoUtilsBenchmark.
+     */
+    public static void copy(Path source, Path target) throws IOException {
+        try {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Could not copy " + source + " to " + target, e);
         }
-
-        final Path sourcePath = source.toPath();
-        Files.walk(sourcePath).forEach(path -> {
-            final String name = (target.length() > 0 ? target + "/" : "") + sourcePath.relativize(path).toString().replace('\\', '/');
-            if (name.length() > 0) {
-                try {
-                    if (Files.isDirectory(path)) {
-                        addDirEntryToZip(zs, name);
-                    } else {
-                        addResourceToZip(zs, name, Files.newInputStream(path));
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        });
     }
 
-    private static void addDirEntryToZip(ZipOutputStream zs, String dir) throws IOException {
-        addResourceToZip(zs, dir + (dir.endsWith("/") ? "" : "/"), null);
+    public static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(in, out);
+        return out.toByteArray();
     }
 
-    public static void addResourceToZip(ZipOutputStream zs, String name, InputStream in) throws IOException {
-        final ZipEntry zipEntry = new ZipEntry(name);
-        try {
-            zs.putNextEntry(zipEntry);
-            if (in != null) {
-                copy(in, zs);
-            }
-            zs.closeEntry();
-        } catch (ZipException e) {
-            if (!e.getMessage().startsWith("duplicate entry")) {
-                e.printStackTrace();
+    /**
+     * Find the jar files on the classpath containing the given directory.
+     */
+    public static List<File> classpathJars(String base) throws IOException {
+        final List<File> jars = new ArrayList<>();
+        final Enumeration<URL> resources = IoUtils.class.getClassLoader().getResources(base);
+        while (resources.hasMoreElements()) {
+            final URL url = resources.nextElement();
+            final String path = url.getPath();
+            final int jarEnd = path.indexOf(".jar!/");
+            if (jarEnd > 0) {
+                jars.add(new File(path.substring(5, jarEnd + 4)));
             }
         }
+        return jars;
     }
-
 }
@@ -0,0 +1,217 @@
+package org.swisspush.apikana;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tracks which json schemas changed since the last run and deletes only the java sources and classes generated from them,
+ * so jsonschema2pojo regenerates and the compiler recompiles only what is needed.
+ * The classes of a changed schema are the class named after it, the classes it references that are not generated from another schema
+ * (from inline object definitions) and all classes referencing one of these, directly or through other classes.
+ */
+class ModelClasses {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String PACKAGE_KEY = "@package";
+
+    private final File schemaDir;
+    private final String javaPackage;
+    private final File sourceDir;
+    private final File classDir;
+
+    ModelClasses(File schemaDir, String javaPackage, File sourceDir, File classDir) {
+        this.schemaDir = schemaDir;
+        this.javaPackage = javaPackage;
+        final String path = javaPackage.replace('.', '/');
+        this.sourceDir = new File(sourceDir, path);
+        this.classDir = new File(classDir, path);
+    }
+
+    /**
+     * Delete the sources and classes of all schemas that changed since the manifest was written.
+     *
+     * @return the number of deleted classes or -1 if everything has been deleted.
+     */
+    public int clean(File manifest, boolean incremental) throws IOException {
+        final Properties old = Fingerprint.read(manifest);
+        final Properties current = schemaHashes();
+        manifest.delete();
+        int deleted = -1;
+        if (incremental && javaPackage.equals(old.getProperty(PACKAGE_KEY))) {
+            deleted = cleanChanged(old, current);
+        }
+        if (deleted < 0) {
+            cleanAll();
+        }
+        manifest.getParentFile().mkdirs();
+        try (final OutputStream out = new FileOutputStream(manifest)) {
+            current.store(out, null);
+        }
+        return deleted;
+    }
+
+    private int cleanChanged(Properties old, Properties current) throws IOException {
+        final Set<String> schemaClasses = new HashSet<>();
+        final Set<String> changed = new HashSet<>();
+        final Set<String> all = new HashSet<>(old.stringPropertyNames());
+        all.addAll(current.stringPropertyNames());
+        all.remove(PACKAGE_KEY);
+        for (final String schema : all) {
+            final String oldValue = old.getProperty(schema);
+            final String newValue = current.getProperty(schema);
+            //a changed javaType renames the class, so the class of the old name must go as well
+            final Set<String> classNames = new HashSet<>();
+            for (final String value : new String[]{oldValue, newValue}) {
+                if (value != null) {
+                    final String className = className(value);
+                    if (className == null) {
+                        //can't tell which class belongs to the schema
+                        return -1;
+                    }
+                    classNames.add(className);
+                }
+            }
+            schemaClasses.addAll(classNames);
+            if (!Objects.equals(oldValue, newValue)) {
+                changed.addAll(classNames);
+            }
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        final Map<String, Set<String>> references = classReferences();
+        final Set<String> affected = new HashSet<>();
+        for (final String name : changed) {
+            affected.add(name);
+            //classes of inline definitions are only referenced from the schema's class
+            for (final String ref : references.getOrDefault(name, Collections.<String>emptySet())) {
+                if (!schemaClasses.contains(ref)) {
+                    affected.add(ref);
+                }
+            }
+        }
+        //classes using an affected class must be compiled again, and so must the classes using them
+        final Map<String, Set<String>> usages = new HashMap<>();
+        for (final Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            for (final String ref : entry.getValue()) {
+                usages.computeIfAbsent(ref, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+        final Deque<String> todo = new ArrayDeque<>(affected);
+        while (!todo.isEmpty()) {
+            for (final String user : usages.getOrDefault(todo.remove(), Collections.<String>emptySet())) {
+                if (affected.add(user)) {
+                    todo.add(user);
+                }
+            }
+        }
+        for (final String name : affected) {
+            delete(name);
+        }
+        return affected.size();
+    }
+
+    private void cleanAll() throws IOException {
+        for (final File dir : new File[]{classDir, sourceDir}) {
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    if (file.isFile()) {
+                        Files.delete(file.toPath());
+                    }
+                }
+            }
+        }
+    }
+
+    private void delete(String simpleName) throws IOException {
+        Files.deleteIfExists(new File(sourceDir, simpleName + ".java").toPath());
+        final File[] classes = classDir.listFiles((dir, name) -> name.equals(simpleName + ".class") || name.startsWith(simpleName + "$"));
+        if (classes != null) {
+            for (final File file : classes) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return for each top level class in the package, the top level classes of the package it references.
+     */
+    private Map<String, Set<String>> classReferences() throws IOException {
+        final Map<String, Set<String>> refs = new HashMap<>();
+        final File[] classes = classDir.listFiles((dir, name) -> name.endsWith(".class"));
+        if (classes == null) {
+            return refs;
+        }
+        final String prefix = javaPackage.replace('.', '/') + "/";
+        for (final File file : classes) {
+            final String name = topLevel(file.getName().substring(0, file.getName().length() - 6));
+            final Set<String> classRefs = refs.computeIfAbsent(name, k -> new HashSet<>());
+            for (final String ref : ClassClosure.references(Files.readAllBytes(file.toPath()))) {
+                if (ref.startsWith(prefix) && ref.indexOf('/', prefix.length()) < 0) {
+                    final String simple = topLevel(ref.substring(prefix.length()));
+                    if (!simple.equals(name)) {
+                        classRefs.add(simple);
+                    }
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static String topLevel(String name) {
+        final int pos = name.indexOf('$');
+        return pos < 0 ? name : name.substring(0, pos);
+    }
+
+    private Properties schemaHashes() throws IOException {
+        final Properties hashes = new Properties();
+        hashes.setProperty(PACKAGE_KEY, javaPackage);
+        if (!schemaDir.isDirectory()) {
+            return hashes;
+        }
+        final Path base = schemaDir.toPath();
+        final List<Path> schemas;
+        try (final Stream<Path> walk = Files.walk(base)) {
+            schemas = walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".json")).collect(Collectors.toList());
+        }
+        for (final Path schema : schemas) {
+            final String name = base.relativize(schema).toString().replace('\\', '/');
+            //the class name is stored with the hash, so it's known even after the schema has been deleted
+            hashes.setProperty(name, Fingerprint.sha1(schema.toFile()) + " " + schemaClassName(schema));
+        }
+        return hashes;
+    }
+
+    private String schemaClassName(Path schema) throws IOException {
+        final JsonNode javaType = MAPPER.readTree(schema.toFile()).path("javaType");
+        if (javaType.isTextual()) {
+            final String type = javaType.asText();
+            final int dot = type.lastIndexOf('.');
+            return dot < 0 || type.substring(0, dot).equals(javaPackage) ? type.substring(dot + 1) : "";
+        }
+        //jsonschema2pojo derives the class name from the file name
+        final String file = schema.getFileName().toString();
+        final StringBuilder name = new StringBuilder();
+        for (final String part : file.substring(0, file.length() - 5).split("[^A-Za-z0-9]+")) {
+            if (part.length() > 0) {
+                name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return name.toString();
+    }
+
+    private static String className(String hashAndName) {
+        final int space = hashAndName.indexOf(' ');
+        return space < 0 || space == hashAndName.length() - 1 ? null : hashAndName.substring(space + 1);
+    }
+}
@@ -0,0 +1,147 @@
+package org.swisspush.apikana;
+
+import org.apache.maven.artifact.Artifact;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * A jar containing models or styles of a dependency, together with the marker of its last extraction.
+ */
+class ModelJar {
+    private static final String ENTRY = "entry.";
+    private static final String WRITTEN = "written.";
+
+    final Artifact artifact;
+    final File file;
+    final boolean onlyStyle;
+    final Map<String, String> entries = new LinkedHashMap<>();
+    final Properties marker = new Properties();
+    String checksum;
+    long millis;
+
+    ModelJar(Artifact artifact, File file, boolean onlyStyle) {
+        this.artifact = artifact;
+        this.file = file;
+        this.onlyStyle = onlyStyle;
+    }
+
+    /**
+     * Map an entry of the jar to its path inside the dependency directory.
+     *
+     * @return the target path or null if the entry is not a model
+     */
+    static String target(String name, String artifactId, boolean onlyStyle) {
+        final int slash = name.indexOf('/');
+        if (slash <= 0 || name.endsWith("/")) {
+            return null;
+        }
+        final String type = name.substring(0, slash);
+        switch (type) {
+            case "ts":
+            case "json-schema-v3":
+            case "json-schema-v4":
+                return onlyStyle ? null : type + "/" + artifactId + name.substring(slash);
+            case "style":
+                return name;
+            default:
+                return null;
+        }
+    }
+
+    String key() {
+        return artifact.getGroupId() + "_" + artifact.getArtifactId() + (onlyStyle ? "_style" : "");
+    }
+
+    /**
+     * Read the marker of the last extraction and the entries of the jar, from the marker if the jar has not changed since.
+     *
+     * @param markerFile the marker or null to always read the jar
+     */
+    void load(File markerFile) throws IOException {
+        readMarker(markerFile);
+        final String length = Long.toString(file.length());
+        final String modified = Long.toString(file.lastModified());
+        checksum = length.equals(marker.getProperty("length")) && modified.equals(marker.getProperty("modified"))
+                ? marker.getProperty("checksum")
+                : Fingerprint.sha1(file);
+        if (checksum.equals(marker.getProperty("checksum"))) {
+            for (final String name : marker.stringPropertyNames()) {
+                if (name.startsWith(ENTRY)) {
+                    entries.put(name.substring(ENTRY.length()), marker.getProperty(name));
+                }
+            }
+        } else {
+            try (final JarFile jar = new JarFile(file)) {
+                final Enumeration<JarEntry> es = jar.entries();
+                while (es.hasMoreElements()) {
+                    final JarEntry entry = es.nextElement();
+                    final String target = target(entry.getName(), artifact.getArtifactId(), onlyStyle);
+                    if (target != null) {
+                        entries.put(target, entry.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of this jar with the marker of another extraction, without reading the jar again.
+     */
+    ModelJar withMarker(File markerFile) throws IOException {
+        final ModelJar copy = new ModelJar(artifact, file, onlyStyle);
+        copy.readMarker(markerFile);
+        copy.checksum = checksum;
+        copy.entries.putAll(entries);
+        return copy;
+    }
+
+    private void readMarker(File markerFile) throws IOException {
+        if (markerFile != null && markerFile.exists()) {
+            try (final InputStream in = new FileInputStream(markerFile)) {
+                marker.load(in);
+            }
+        }
+    }
+
+    static Set<String> written(Properties marker) {
+        final Set<String> written = new HashSet<>();
+        for (final String name : marker.stringPropertyNames()) {
+            if (name.startsWith(WRITTEN)) {
+                written.add(name.substring(WRITTEN.length()));
+            }
+        }
+        return written;
+    }
+
+    boolean isExtracted(Set<String> owned, File base) {
+        if (!checksum.equals(marker.getProperty("checksum")) || !owned.equals(written(marker))) {
+            return false;
+        }
+        for (final String target : owned) {
+            if (!new File(base, target).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeMarker(File markerFile, Set<String> owned) throws IOException {
+        final Properties props = new Properties();
+        props.setProperty("checksum", checksum);
+        props.setProperty("length", Long.toString(file.length()));
+        props.setProperty("modified", Long.toString(file.lastModified()));
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            props.setProperty(ENTRY + entry.getKey(), entry.getValue());
+        }
+        for (final String target : owned) {
+            props.setProperty(WRITTEN + target, "");
+        }
+        markerFile.getParentFile().mkdirs();
+        try (final OutputStream out = new FileOutputStream(markerFile)) {
+            props.store(out, artifact.toString());
+        }
+    }
+}
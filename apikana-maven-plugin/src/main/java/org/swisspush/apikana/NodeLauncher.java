@@ -0,0 +1,169 @@
+package org.swisspush.apikana;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs node scripts of a node installation made by the frontend plugin directly, without going through npm or the frontend plugin.
+ * The output of the process is streamed into the maven log while it runs.
+ */
+class NodeLauncher {
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    private final File nodeDir;
+    private final File node;
+    private final long timeoutMillis;
+    private final Log log;
+
+    NodeLauncher(File nodeDir, long timeoutMillis, Log log) {
+        this.nodeDir = nodeDir;
+        this.node = nodeBinary(nodeDir);
+        this.timeoutMillis = timeoutMillis;
+        this.log = log;
+    }
+
+    static File nodeBinary(File nodeDir) {
+        return new File(nodeDir, WINDOWS ? "node/node.exe" : "node/node");
+    }
+
+    public boolean isAvailable() {
+        return node.isFile();
+    }
+
+    /**
+     * @return the npm command line script installed together with node, or null if there is none.
+     */
+    public File npmScript() {
+        final File npm = new File(nodeDir, "node/node_modules/npm/bin/npm-cli.js");
+        return npm.isFile() ? npm : null;
+    }
+
+    /**
+     * @return the script of the given executable of an installed package, or null if it is not installed.
+     */
+    public File packageScript(String pack, String executable) throws IOException {
+        final File packageDir = new File(nodeDir, "node_modules/" + pack);
+        final File packageJson = new File(packageDir, "package.json");
+        if (!packageJson.isFile()) {
+            return null;
+        }
+        final JsonNode bin = new ObjectMapper().readTree(packageJson).path("bin");
+        final JsonNode script = bin.isTextual() ? bin : bin.path(executable);
+        if (!script.isTextual()) {
+            return null;
+        }
+        final File file = new File(packageDir, script.asText());
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Run node with the given arguments and wait for it to finish.
+     * The process is killed if it takes longer than the timeout, if the current thread is interrupted or if the JVM exits.
+     */
+    public void run(File workDir, List<String> args) throws IOException {
+        final List<String> cmd = new ArrayList<>();
+        cmd.add(node.getAbsolutePath());
+        cmd.addAll(args);
+        //don't log proxy passwords
+        log.debug("Executing " + cmd.toString().replaceAll("://[^/@\\s,]*@", "://***@") + " in " + workDir);
+        final ProcessBuilder pb = new ProcessBuilder(cmd).directory(workDir);
+        addToPath(pb.environment(), node.getParentFile(), new File(nodeDir, "node_modules/.bin"));
+        final long start = System.currentTimeMillis();
+        final Process process = pb.start();
+        final Thread killer = new Thread(() -> destroyTree(process));
+        Runtime.getRuntime().addShutdownHook(killer);
+        final Thread out = pump(process.getInputStream(), log::info);
+        final Thread err = pump(process.getErrorStream(), log::warn);
+        try {
+            final boolean finished;
+            if (timeoutMillis > 0) {
+                finished = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                process.waitFor();
+                finished = true;
+            }
+            if (!finished) {
+                destroyTree(process);
+                throw new IOException("node " + args.get(0) + " did not finish within " + timeoutMillis / 1000 + " s.");
+            }
+            //wait for the rest of the output
+            out.join(1000);
+            err.join(1000);
+        } catch (InterruptedException e) {
+            destroyTree(process);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running node " + args.get(0));
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(killer);
+            } catch (IllegalStateException e) {
+                //the JVM is shutting down, the hook will kill the process
+            }
+        }
+        log.debug("node " + args.get(0) + " finished in " + (System.currentTimeMillis() - start) + " ms.");
+        if (process.exitValue() != 0) {
+            throw new IOException("node " + args.get(0) + " failed with exit code " + process.exitValue());
+        }
+    }
+
+    /**
+     * Kill the process and all processes it started, like the ones npm starts for install scripts.
+     */
+    static void destroyTree(Process process) {
+        try {
+            //Process.descendants() exists since Java 9, the plugin is compiled for Java 8
+            final Stream<?> descendants = (Stream<?>) Process.class.getMethod("descendants").invoke(process);
+            final Method destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+            //children first, so they can't be reparented while the parent dies
+            for (final Object child : descendants.collect(Collectors.toList())) {
+                destroy.invoke(child);
+            }
+        } catch (ReflectiveOperationException e) {
+            //Java 8, only the process itself can be killed
+        }
+        process.destroyForcibly();
+    }
+
+    private static void addToPath(Map<String, String> env, File... dirs) {
+        String key = "PATH";
+        for (final String name : env.keySet()) {
+            if (name.equalsIgnoreCase("PATH")) {
+                key = name;
+            }
+        }
+        final StringBuilder path = new StringBuilder();
+        for (final File dir : dirs) {
+            path.append(dir.getAbsolutePath()).append(File.pathSeparator);
+        }
+        final String old = env.get(key);
+        env.put(key, old == null ? path.substring(0, path.length() - 1) : path + old);
+    }
+
+    private static Thread pump(InputStream in, Consumer<String> target) {
+        final Thread thread = new Thread(() -> {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    target.accept(line);
+                }
+            } catch (IOException e) {
+                //the process has been killed
+            }
+        }, "node-output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
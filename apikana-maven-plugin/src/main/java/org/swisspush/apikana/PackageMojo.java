@@ -3,87 +3,271 @@ package org.swisspush.apikana;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
-import static org.swisspush.apikana.IoUtils.*;
-
 /**
  * Package the generated files in sources-jar, api-jar and style-jar.
  */
-@Mojo(name = "package", defaultPhase = LifecyclePhase.PACKAGE)
+@Mojo(name = "package", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
 public class PackageMojo extends AbstractApikanaMojo {
+    /**
+     * The compression level of the created jars, from 0 (no compression) to 9 (best compression).
+     * -1 uses the default compression level.
+     */
+    @Parameter(defaultValue = "-1", property = "apikana.compression-level")
+    private int compressionLevel;
+
+    /**
+     * If only the jetty classes needed by the api server should be added to the api jar.
+     * The needed classes are found by following the references in the bytecode, including class names in string constants.
+     * Set it to false to add the complete jetty jars.
+     */
+    @Parameter(defaultValue = "true", property = "apikana.minimize-jar")
+    private boolean minimizeJar;
+
+    /**
+     * If a class data sharing archive for the api jar should be created.
+     * It speeds up the start of the server, but can only be used with the same JVM and the api jar in target.
+     * Use it with java -XX:SharedArchiveFile=target/xxx-api.jar.jsa -jar target/xxx-api.jar
+     */
+    @Parameter(defaultValue = "false", property = "apikana.cds-archive")
+    private boolean cdsArchive;
+
+    private static List<ZipBuilder.Entry> jettyEntries;
+    private static ClassClosure serverClasses;
+
+    private ExecutorService executor;
+    private long entryTime;
 
     public void execute() throws MojoExecutionException {
+        entryTime = entryTime();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         try {
             if (isPom()) {
                 if (file(style).exists()) {
                     projectHelper.attachArtifact(mavenProject, "jar", "style", createStyleJar());
                 }
             } else {
-                projectHelper.attachArtifact(mavenProject, createApiJar(OUTPUT), "api");
-                projectHelper.attachArtifact(mavenProject, createSourcesJar(OUTPUT), "sources");
+                final List<ApiSpec> specs = apiSpecs().isEmpty() ? Collections.singletonList(new ApiSpec()) : apiSpecs();
+                final File apiJar = createApiJar(specs);
+                if (cdsArchive) {
+                    createCdsArchive(apiJar);
+                }
+                projectHelper.attachArtifact(mavenProject, apiJar, "api");
+                projectHelper.attachArtifact(mavenProject, createSourcesJar(specs), "sources");
             }
         } catch (Exception e) {
             throw new MojoExecutionException("Problem packaging APIs", e);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private File createApiJar(String output) throws IOException {
+    /**
+     * All specs go into one jar, each one under its name.
+     */
+    private File createApiJar(List<ApiSpec> specs) throws IOException {
         final Manifest manifest = new Manifest();
         final Attributes mainAttributes = manifest.getMainAttributes();
         mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
         mainAttributes.put(Attributes.Name.MAIN_CLASS, ApiServer.class.getName());
-        final File file = apiJarFile();
-        try (JarOutputStream zs = new JarOutputStream(new FileOutputStream(file), manifest)) {
-            addDirToZip(zs, file(output + "/model/json-schema-v3"), "model/json-schema-v3");
-            addDirToZip(zs, file(output + "/model/json-schema-v4"), "model/json-schema-v4");
-            addDirToZip(zs, file(output + "/ui"), "ui");
-            addClassToZip(zs, ApiServer.class);
-            addClassToZip(zs, ApiServer.RootResourceHandler.class);
-            addJettyToZip(zs);
-            addDirToZip(zs, file(output + "/model/openapi"), "model/openapi");
-            addDirToZip(zs, file(output + "/model/ts"), "model/ts");
-            addDirToZip(zs, target("api-dependencies/ts"), "model/ts/node_modules");
-            final String index = "<!DOCTYPE html><html><head><meta http-equiv='refresh' content='0; url=ui/index.html?url=../model/openapi/api.yaml'></head></html>";
-            addResourceToZip(zs, "index.html", new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)));
+        final Fingerprint inputs = jarFingerprint()
+                .add("dependencies", target("api-dependencies/ts"))
+                .add("param.minimizeJar", Boolean.toString(minimizeJar));
+        for (final ApiSpec spec : specs) {
+            final String output = spec.output();
+            inputs.add(spec.prefix() + "json-schema-v3", file(output + "/model/json-schema-v3"))
+                    .add(spec.prefix() + "json-schema-v4", file(output + "/model/json-schema-v4"))
+                    .add(spec.prefix() + "ui", file(output + "/ui"))
+                    .add(spec.prefix() + "openapi", file(output + "/model/openapi"))
+                    .add(spec.prefix() + "ts", file(output + "/model/ts"));
         }
-        return file;
+        return packageJar(apiJarFile(), inputs, zip -> {
+            zip.addManifest(manifest);
+            for (final ApiSpec spec : specs) {
+                final String output = spec.output();
+                final String prefix = spec.prefix();
+                zip.addDir(file(output + "/model/json-schema-v3"), prefix + "model/json-schema-v3", true);
+                zip.addDir(file(output + "/model/json-schema-v4"), prefix + "model/json-schema-v4", true);
+                zip.addDir(file(output + "/ui"), prefix + "ui", true);
+            }
+            addServerToZip(zip);
+            for (final ApiSpec spec : specs) {
+                final String output = spec.output();
+                final String prefix = spec.prefix();
+                zip.addDir(file(output + "/model/openapi"), prefix + "model/openapi", true);
+                zip.addDir(file(output + "/model/ts"), prefix + "model/ts", true);
+            }
+            //the server also serves them as [name]/model/ts/node_modules
+            zip.addDir(target("api-dependencies/ts"), "model/ts/node_modules", true);
+            zip.addResource("index.html", index(specs).getBytes(StandardCharsets.UTF_8));
+        });
     }
 
-    private File createSourcesJar(String output) throws IOException {
-        final File file = sourcesJarFile();
-        try (JarOutputStream zs = new JarOutputStream(new FileOutputStream(file))) {
-            addDirToZip(zs, target("java-gen"), "");
-            addDirToZip(zs, file(output + "/model/java"), "");
-            addDirToZip(zs, file(output + "/model/json-schema-v3"), "json-schema-v3");
-            addDirToZip(zs, file(output + "/model/json-schema-v4"), "json-schema-v4");
-            addDirToZip(zs, file(output + "/model/openapi"), "openapi");
-            addDirToZip(zs, file(output + "/model/ts"), "ts");
-            addDirToZip(zs, file(output + "/ui/style"), "style");
+    private String index(List<ApiSpec> specs) {
+        final String ui = "ui/index.html?url=../model/openapi/api.yaml";
+        if (specs.size() == 1) {
+            return "<!DOCTYPE html><html><head><meta http-equiv='refresh' content='0; url=" + specs.get(0).prefix() + ui + "'></head></html>";
         }
-        return file;
+        final StringBuilder s = new StringBuilder("<!DOCTYPE html><html><head><title>" + mavenProject.getArtifactId() + "</title></head><body><ul>");
+        for (final ApiSpec spec : specs) {
+            s.append("<li><a href='").append(spec.prefix()).append(ui).append("'>").append(spec.getName()).append("</a></li>");
+        }
+        return s.append("</ul></body></html>").toString();
+    }
+
+    /**
+     * The models of named specs are in a subdirectory of their type, e.g. ts/[name].
+     */
+    private File createSourcesJar(List<ApiSpec> specs) throws IOException {
+        final Fingerprint inputs = jarFingerprint()
+                .add("java-gen", target("java-gen"))
+                .add("style", file(specs.get(0).output() + "/ui/style"))
+                .add("marker", new String(apiMarker(), StandardCharsets.UTF_8));
+        for (final ApiSpec spec : specs) {
+            final String output = spec.output();
+            inputs.add(spec.prefix() + "java", file(output + "/model/java"))
+                    .add(spec.prefix() + "json-schema-v3", file(output + "/model/json-schema-v3"))
+                    .add(spec.prefix() + "json-schema-v4", file(output + "/model/json-schema-v4"))
+                    .add(spec.prefix() + "openapi", file(output + "/model/openapi"))
+                    .add(spec.prefix() + "ts", file(output + "/model/ts"));
+        }
+        return packageJar(sourcesJarFile(), inputs, zip -> {
+            zip.addDir(target("java-gen"), "");
+            for (final ApiSpec spec : specs) {
+                final String output = spec.output();
+                final String sub = spec.getName() == null ? "" : "/" + spec.getName();
+                zip.addDir(file(output + "/model/java"), "");
+                zip.addDir(file(output + "/model/json-schema-v3"), "json-schema-v3" + sub);
+                zip.addDir(file(output + "/model/json-schema-v4"), "json-schema-v4" + sub);
+                zip.addDir(file(output + "/model/openapi"), "openapi" + sub);
+                zip.addDir(file(output + "/model/ts"), "ts" + sub);
+            }
+            //all specs use the style of the module
+            zip.addDir(file(specs.get(0).output() + "/ui/style"), "style");
+            zip.addResource(API_MARKER, apiMarker());
+        });
     }
 
     private File createStyleJar() throws IOException {
-        final File file = styleJarFile();
+        final Fingerprint inputs = jarFingerprint().add("style", file(style));
+        return packageJar(styleJarFile(), inputs, zip -> zip.addDir(file(style), "style"));
+    }
+
+    private Fingerprint jarFingerprint() throws IOException {
+        //a new plugin version can change the content of the jars even if the inputs are the same
+        final URL plugin = PackageMojo.class.getProtectionDomain().getCodeSource().getLocation();
+        return new Fingerprint()
+                .add("plugin", "file".equals(plugin.getProtocol()) ? new File(URLDecoder.decode(plugin.getPath(), "UTF-8")) : target("no-plugin"))
+                .add("param.compressionLevel", Integer.toString(compressionLevel))
+                .add("param.entryTime", Long.toString(entryTime));
+    }
+
+    private File packageJar(File file, Fingerprint inputs, JarContent content) throws IOException {
+        final File manifest = new File(file.getPath() + ".inputs");
+        if (file.exists() && inputs.matches(manifest)) {
+            getLog().info("Inputs of " + file.getName() + " have not changed. Reusing it.");
+            return file;
+        }
+        final boolean reusable = file.exists() && inputs.get("param.compressionLevel")
+                .equals(Fingerprint.read(manifest).getProperty("param.compressionLevel"));
+        manifest.delete();
         file.getParentFile().mkdirs();
-        try (JarOutputStream zs = new JarOutputStream(new FileOutputStream(file))) {
-            addDirToZip(zs, file(style), "style");
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (final ZipBuilder zip = new ZipBuilder(temp, compressionLevel, entryTime, executor)) {
+                if (reusable) {
+                    zip.reuse(ZipReader.readRaw(file));
+                }
+                content.addTo(zip);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
         }
+        inputs.write(manifest);
         return file;
     }
 
-    private void addJettyToZip(JarOutputStream zs) throws IOException {
-        addZipsToZip(zs, "org/eclipse/jetty");
-        addZipsToZip(zs, "javax/servlet");
+    private interface JarContent {
+        void addTo(ZipBuilder zip) throws IOException;
+    }
+
+    private void addServerToZip(ZipBuilder zip) throws IOException {
+        final ClassClosure classes = minimizeJar ? serverClasses() : new ClassClosure(Collections.emptyList()).add(ApiServer.class);
+        for (final Map.Entry<String, byte[]> own : classes.ownClasses().entrySet()) {
+            zip.addResource(own.getKey(), own.getValue());
+        }
+        //without jetty entries, the closure only walks the classes of this plugin
+        zip.addRaw(minimizeJar ? classes.entries() : jettyEntries());
+    }
+
+    static synchronized ClassClosure serverClasses() throws IOException {
+        if (serverClasses == null) {
+            serverClasses = new ClassClosure(jettyEntries()).add(ApiServer.class);
+        }
+        return serverClasses;
+    }
+
+    private void createCdsArchive(File jar) throws IOException, InterruptedException {
+        final File archive = new File(jar.getPath() + ".jsa");
+        if (archive.exists() && archive.lastModified() >= jar.lastModified()) {
+            return;
+        }
+        final File classList = new File(jar.getPath() + ".classlist");
+        final StringBuilder list = new StringBuilder();
+        for (final String name : serverClasses().classes()) {
+            list.append(name).append('\n');
+        }
+        Files.write(classList.toPath(), list.toString().getBytes(StandardCharsets.UTF_8));
+        final File java = new File(System.getProperty("java.home"), "bin/java");
+        final Process process = new ProcessBuilder(java.getAbsolutePath(), "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList.getAbsolutePath(),
+                "-XX:SharedArchiveFile=" + archive.getAbsolutePath(),
+                "-cp", jar.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        final byte[] output = IoUtils.readAll(process.getInputStream());
+        if (process.waitFor() != 0) {
+            Files.deleteIfExists(archive.toPath());
+            getLog().warn("Could not create class data sharing archive, this needs Java 10 or newer.\n" + new String(output, StandardCharsets.UTF_8));
+        } else {
+            getLog().info("Created class data sharing archive " + archive.getName() + ". Start the server with java -XX:SharedArchiveFile="
+                    + relative(file(""), archive) + " -jar " + relative(file(""), jar));
+        }
+    }
+
+    static synchronized List<ZipBuilder.Entry> jettyEntries() throws IOException {
+        //the jetty jars are the same for every module, read them only once per plugin instance
+        if (jettyEntries == null) {
+            final List<ZipBuilder.Entry> entries = new ArrayList<>();
+            final Set<File> jars = new LinkedHashSet<>(IoUtils.classpathJars("org/eclipse/jetty"));
+            jars.addAll(IoUtils.classpathJars("javax/servlet"));
+            for (final File jar : jars) {
+                entries.addAll(ZipReader.readRaw(jar));
+            }
+            jettyEntries = entries;
+        }
+        return jettyEntries;
     }
 
     private File apiJarFile() {
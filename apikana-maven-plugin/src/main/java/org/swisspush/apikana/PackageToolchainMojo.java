@@ -0,0 +1,58 @@
+package org.swisspush.apikana;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Package node and the apikana node package into a jar, to be used as toolchainArtifact of the generate goal.
+ * The toolchain depends on the platform, so it must be built once on every supported platform.
+ */
+@Mojo(name = "package-toolchain", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
+public class PackageToolchainMojo extends GenerateMojo {
+    /**
+     * The classifier of the created toolchain jar. By default toolchain-[os]-[arch] of the current platform.
+     */
+    @Parameter(property = "apikana.toolchain-classifier")
+    private String toolchainClassifier;
+
+    public void execute() throws MojoExecutionException {
+        final String classifier = toolchainClassifier == null ? platformClassifier() : toolchainClassifier;
+        final File dir = target("apikana-toolchain");
+        final File jar = target(mavenProject.getArtifactId() + "-" + mavenProject.getVersion() + "-" + classifier + ".jar");
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            dir.mkdirs();
+            Files.write(new File(dir, "package.json").toPath(), toolchainPackageJson());
+            installNode(dir);
+            installApikana(dir);
+            try (final ZipBuilder zip = new ZipBuilder(jar, -1, entryTime(), executor)) {
+                zip.addTree(new File(dir, "node"), "node");
+                zip.addTree(new File(dir, "node_modules"), "node_modules");
+                zip.addFile("package.json", new File(dir, "package.json").toPath());
+            }
+            projectHelper.attachArtifact(mavenProject, "jar", classifier, jar);
+            getLog().info("Created toolchain " + jar.getName());
+        } catch (Exception e) {
+            throw new MojoExecutionException("Problem packaging toolchain", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static String platformClassifier() {
+        final String os = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+        final String arch = System.getProperty("os.arch").toLowerCase(Locale.ENGLISH);
+        return "toolchain-"
+                + (os.contains("win") ? "win" : os.contains("mac") ? "darwin" : os.replaceAll("[^a-z0-9]", ""))
+                + "-"
+                + (arch.equals("amd64") || arch.equals("x86_64") ? "x64" : arch.equals("aarch64") ? "arm64" : arch);
+    }
+}
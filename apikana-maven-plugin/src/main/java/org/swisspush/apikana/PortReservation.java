@@ -0,0 +1,64 @@
+package org.swisspush.apikana;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A port for an HTTP server that is started later by another process.
+ * The port is kept bound until it is handed over to the server, so no other process can take it in between,
+ * and it is not given to another module of the same build until the reservation is closed.
+ */
+class PortReservation implements Closeable {
+    private static final Set<Integer> RESERVED = ConcurrentHashMap.newKeySet();
+
+    private final int port;
+    private ServerSocket socket;
+
+    private PortReservation(int port, ServerSocket socket) {
+        this.port = port;
+        this.socket = socket;
+    }
+
+    /**
+     * @return a reservation of the first free port in the range [from, from + count).
+     */
+    static PortReservation reserve(int from, int count) throws IOException {
+        for (int p = from; p < from + count; p++) {
+            if (RESERVED.add(p)) {
+                try {
+                    return new PortReservation(p, new ServerSocket(p));
+                } catch (IOException e) {
+                    //used by another process
+                    RESERVED.remove(p);
+                }
+            }
+        }
+        throw new IOException("No free port found in range " + from + " - " + (from + count - 1));
+    }
+
+    int port() {
+        return port;
+    }
+
+    /**
+     * Unbind the port, so the server can bind it. It stays reserved in this JVM until closed.
+     */
+    synchronized void handOver() throws IOException {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            handOver();
+        } finally {
+            RESERVED.remove(port);
+        }
+    }
+}
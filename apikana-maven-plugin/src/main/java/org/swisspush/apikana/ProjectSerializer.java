@@ -1,7 +1,14 @@
 package org.swisspush.apikana;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdDelegatingSerializer;
+import com.fasterxml.jackson.databind.util.StdConverter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import org.apache.maven.model.Build;
@@ -10,10 +17,38 @@ import org.apache.maven.model.Model;
 import org.apache.maven.project.MavenProject;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStream;
+import java.util.*;
 
+/**
+ * Writes the properties and the model of a project as json, in one pass.
+ * Properties, bean properties and map entries are sorted by name, so the output doesn't depend on reflection order.
+ */
 public class ProjectSerializer {
+    //configured once, ObjectMapper and ObjectWriter are thread safe
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .addMixIn(ConfigurationContainer.class, ConfigurationContainerMixIn.class)
+            .addMixIn(Build.class, BuildMixIn.class)
+            .addMixIn(Model.class, ModelMixIn.class)
+            //sorting a map looks for a null key, which a Properties (Hashtable) rejects with a NullPointerException
+            .registerModule(new SimpleModule().addSerializer(Properties.class, new StdDelegatingSerializer(
+                    new StdConverter<Properties, Map<String, String>>() {
+                        @Override
+                        public Map<String, String> convert(Properties value) {
+                            final Map<String, String> sorted = new TreeMap<>();
+                            for (final String name : value.stringPropertyNames()) {
+                                sorted.put(name, value.getProperty(name));
+                            }
+                            return sorted;
+                        }
+                    })))
+            .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private static final SimpleBeanPropertyFilter ALL_MODEL_FIELDS =
+            SimpleBeanPropertyFilter.serializeAllExcept("dependencies", "repositories", "pluginRepositories");
+    private static final ObjectWriter ALL_FIELDS_WRITER = writer(ALL_MODEL_FIELDS);
+
     @JsonFilter("configurationContainer")
     private interface ConfigurationContainerMixIn {
     }
@@ -26,22 +61,42 @@ public class ProjectSerializer {
     private interface BuildMixIn {
     }
 
-    public Map<String, Object> serialize(MavenProject project) throws IOException {
-        final Map<String, Object> props = new HashMap<>();
-        for (final String name : project.getProperties().stringPropertyNames()) {
-            props.put(name, project.getProperties().getProperty(name));
-        }
-        final ObjectMapper mapper = new ObjectMapper()
-                .addMixIn(ConfigurationContainer.class, ConfigurationContainerMixIn.class)
-                .addMixIn(Build.class, BuildMixIn.class)
-                .addMixIn(Model.class, ModelMixIn.class);
+    private final ObjectWriter writer;
+
+    public ProjectSerializer() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * @param projectFields The fields of the project model to write, all if empty.
+     */
+    public ProjectSerializer(List<String> projectFields) {
+        writer = projectFields == null || projectFields.isEmpty()
+                ? ALL_FIELDS_WRITER
+                : writer(SimpleBeanPropertyFilter.filterOutAllExcept(new HashSet<>(projectFields)));
+    }
+
+    private static ObjectWriter writer(SimpleBeanPropertyFilter modelFilter) {
         final SimpleFilterProvider filter = new SimpleFilterProvider()
                 .addFilter("configurationContainer", SimpleBeanPropertyFilter.serializeAllExcept("configuration"))
                 .addFilter("build", SimpleBeanPropertyFilter.serializeAllExcept("plugins", "pluginManagement", "pluginsAsMap"))
-                .addFilter("model", SimpleBeanPropertyFilter.serializeAllExcept("dependencies", "repositories", "pluginRepositories"));
-        final Map<String, Object> modelMap = mapper.readValue(mapper.writer(filter).writeValueAsString(project.getModel()), Map.class);
-        props.put("basedir", project.getBasedir());
-        props.put("project", modelMap);
-        return props;
+                .addFilter("model", modelFilter);
+        return MAPPER.writer(filter).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    public void write(MavenProject project, OutputStream out) throws IOException {
+        try (final JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+            gen.writeStartObject();
+            final Properties props = project.getProperties();
+            for (final String name : new TreeSet<>(props.stringPropertyNames())) {
+                if (!"basedir".equals(name) && !"project".equals(name)) {
+                    gen.writeStringField(name, props.getProperty(name));
+                }
+            }
+            gen.writeStringField("basedir", project.getBasedir() == null ? null : project.getBasedir().getAbsolutePath());
+            gen.writeFieldName("project");
+            writer.writeValue(gen, project.getModel());
+            gen.writeEndObject();
+        }
     }
-}
\ No newline at end of file
+}
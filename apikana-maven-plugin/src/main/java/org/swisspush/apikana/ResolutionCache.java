@@ -0,0 +1,147 @@
+package org.swisspush.apikana;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.SessionData;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Caches the resolution of classified artifacts for the whole maven session.
+ * Artifacts that cannot be found are remembered between builds for a limited time.
+ */
+class ResolutionCache {
+    private static final String KEY = ResolutionCache.class.getName();
+
+    private final ConcurrentMap<String, Optional<Artifact>> resolved = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> misses = new ConcurrentHashMap<>();
+    private final File file;
+    private final ArtifactRepository localRepository;
+    private final long ttl;
+    private final boolean persistMisses;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    private ResolutionCache(File file, ArtifactRepository localRepository, long ttl, boolean persistMisses) {
+        this.file = file;
+        this.localRepository = localRepository;
+        this.ttl = ttl;
+        this.persistMisses = persistMisses;
+        load();
+    }
+
+    static ResolutionCache of(MavenSession session, long ttl) {
+        final SessionData data = session.getRepositorySession().getData();
+        ResolutionCache cache = (ResolutionCache) data.get(KEY);
+        if (cache == null) {
+            final ArtifactRepository localRepository = session.getLocalRepository();
+            final File file = new File(localRepository.getBasedir(), ".apikana/resolution-misses.properties");
+            final ResolutionCache created = new ResolutionCache(file, localRepository, ttl, ttl > 0 && !session.isOffline());
+            cache = data.set(KEY, null, created) ? created : (ResolutionCache) data.get(KEY);
+        }
+        return cache;
+    }
+
+    public Artifact resolve(Artifact artifact, Function<Artifact, ArtifactResolutionResult> resolver) {
+        final String key = artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion() + ":" + artifact.getClassifier();
+        final Long missed = misses.get(key);
+        if (missed != null && missed + ttl > System.currentTimeMillis()) {
+            //the artifact may have been installed or downloaded by another build since
+            if (!isInLocalRepository(artifact)) {
+                hitCount.incrementAndGet();
+                return null;
+            }
+            //the cached empty result of this build is outdated as well
+            misses.remove(key);
+            resolved.remove(key);
+        }
+        final Optional<Artifact> cached = resolved.get(key);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            return cached.orElse(null);
+        }
+        //resolve outside of the map, so lookups of other artifacts don't wait for it
+        missCount.incrementAndGet();
+        final ArtifactResolutionResult res = resolver.apply(artifact);
+        final Iterator<Artifact> iter = res.getArtifacts().iterator();
+        final Optional<Artifact> result = iter.hasNext() ? Optional.of(iter.next()) : Optional.empty();
+        //snapshots and transfer errors can change with the next build, only remember definitive misses of releases
+        if (!result.isPresent() && !artifact.isSnapshot() && !res.hasErrorArtifactExceptions()) {
+            misses.put(key, System.currentTimeMillis());
+        }
+        final Optional<Artifact> previous = resolved.putIfAbsent(key, result);
+        return (previous != null ? previous : result).orElse(null);
+    }
+
+    private boolean isInLocalRepository(Artifact artifact) {
+        return localRepository != null && new File(localRepository.getBasedir(), localRepository.pathOf(artifact)).isFile();
+    }
+
+    public String statistics() {
+        return hitCount + " hits, " + missCount + " misses, " + misses.size() + " known missing artifacts";
+    }
+
+    private void load() {
+        if (persistMisses) {
+            misses.putAll(readMisses());
+        }
+    }
+
+    private Map<String, Long> readMisses() {
+        final Map<String, Long> res = new HashMap<>();
+        if (!file.exists()) {
+            return res;
+        }
+        final Properties props = new Properties();
+        try (final InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            //a broken cache is just ignored
+            return res;
+        }
+        final long now = System.currentTimeMillis();
+        for (final String key : props.stringPropertyNames()) {
+            try {
+                final long time = Long.parseLong(props.getProperty(key));
+                if (time + ttl > now) {
+                    res.put(key, time);
+                }
+            } catch (NumberFormatException e) {
+                //ignore
+            }
+        }
+        return res;
+    }
+
+    public synchronized void save() throws IOException {
+        if (!persistMisses) {
+            return;
+        }
+        //merge with the misses other builds have written in the meantime
+        final Map<String, Long> all = readMisses();
+        all.putAll(misses);
+        final Properties props = new Properties();
+        for (final Map.Entry<String, Long> miss : all.entrySet()) {
+            props.setProperty(miss.getKey(), Long.toString(miss.getValue()));
+        }
+        file.getParentFile().mkdirs();
+        final File temp = File.createTempFile("resolution-misses", ".tmp", file.getParentFile());
+        try {
+            try (final OutputStream out = new FileOutputStream(temp)) {
+                props.store(out, "artifacts not found in any repository");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
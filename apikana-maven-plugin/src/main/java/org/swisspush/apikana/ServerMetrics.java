@@ -0,0 +1,174 @@
+package org.swisspush.apikana;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects request metrics of the ApiServer and renders them in the prometheus text format.
+ * Requests are recorded in counters that don't need locking, so the overhead per request is small.
+ */
+class ServerMetrics implements RequestLog {
+    private static final String[] PATHS = new String[]{"ui", "openapi", "model", "other"};
+    private static final String[] STATUS = new String[]{"1xx", "2xx", "3xx", "4xx", "5xx"};
+    private static final long[] BUCKETS = new long[]{1, 5, 10, 25, 50, 100, 250, 500, 1000, 5000};
+
+    private final ThreadPool threadPool;
+    private final long start = System.currentTimeMillis();
+    private final LongAdder[][] requests = new LongAdder[PATHS.length][STATUS.length];
+    private final LongAdder[][] latency = new LongAdder[PATHS.length][BUCKETS.length + 1];
+    private final LongAdder[] latencySum = new LongAdder[PATHS.length];
+    private final LongAdder[] bytes = new LongAdder[PATHS.length];
+    private final LongAdder indexHits = new LongAdder();
+    private final LongAdder indexMisses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    ServerMetrics(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        for (int i = 0; i < PATHS.length; i++) {
+            for (int j = 0; j < STATUS.length; j++) {
+                requests[i][j] = new LongAdder();
+            }
+            for (int j = 0; j <= BUCKETS.length; j++) {
+                latency[i][j] = new LongAdder();
+            }
+            latencySum[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void log(Request request, Response response) {
+        final int path = pathClass(request.getRequestURI());
+        final int status = response.getStatus();
+        final long millis = Math.max(0, System.currentTimeMillis() - request.getTimeStamp());
+        requests[path][Math.min(Math.max(status / 100, 1), 5) - 1].increment();
+        int bucket = 0;
+        while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+            bucket++;
+        }
+        latency[path][bucket].increment();
+        latencySum[path].add(millis);
+        bytes[path].add(response.getContentCount());
+        if (status == 304) {
+            notModified.increment();
+        }
+    }
+
+    void indexHit() {
+        indexHits.increment();
+    }
+
+    void indexMiss() {
+        indexMisses.increment();
+    }
+
+    boolean isHealthy() {
+        return !threadPool.isLowOnThreads();
+    }
+
+    static String pathClassName(String uri) {
+        return PATHS[pathClass(uri)];
+    }
+
+    private static int pathClass(String uri) {
+        if (uri == null) {
+            return 3;
+        }
+        //the files of a named spec are under /[name]/, like in ApiContent
+        final int slash = uri.indexOf('/', 1);
+        if (slash > 1 && (uri.startsWith("ui/", slash + 1) || uri.startsWith("model/", slash + 1))) {
+            uri = uri.substring(slash);
+        }
+        if (uri.startsWith("/ui/") || uri.equals("/") || uri.equals("/index.html")) {
+            return 0;
+        }
+        if (uri.startsWith("/model/openapi/")) {
+            return 1;
+        }
+        if (uri.startsWith("/model/")) {
+            return 2;
+        }
+        return 3;
+    }
+
+    String render() {
+        final StringBuilder s = new StringBuilder(4096);
+        header(s, "apikana_requests_total", "counter", "Handled requests by path class and status class.");
+        for (int i = 0; i < PATHS.length; i++) {
+            for (int j = 0; j < STATUS.length; j++) {
+                line(s, "apikana_requests_total{path=\"" + PATHS[i] + "\",status=\"" + STATUS[j] + "\"}", requests[i][j].sum());
+            }
+        }
+        header(s, "apikana_request_duration_seconds", "histogram", "Request duration by path class.");
+        for (int i = 0; i < PATHS.length; i++) {
+            long count = 0;
+            for (int j = 0; j <= BUCKETS.length; j++) {
+                count += latency[i][j].sum();
+                final String le = j < BUCKETS.length ? seconds(BUCKETS[j]) : "+Inf";
+                line(s, "apikana_request_duration_seconds_bucket{path=\"" + PATHS[i] + "\",le=\"" + le + "\"}", count);
+            }
+            s.append("apikana_request_duration_seconds_sum{path=\"").append(PATHS[i]).append("\"} ")
+                    .append(seconds(latencySum[i].sum())).append('\n');
+            line(s, "apikana_request_duration_seconds_count{path=\"" + PATHS[i] + "\"}", count);
+        }
+        header(s, "apikana_response_bytes_total", "counter", "Bytes of response content by path class.");
+        for (int i = 0; i < PATHS.length; i++) {
+            line(s, "apikana_response_bytes_total{path=\"" + PATHS[i] + "\"}", bytes[i].sum());
+        }
+        header(s, "apikana_index_hits_total", "counter", "Requests served from the in-memory index.");
+        line(s, "apikana_index_hits_total", indexHits.sum());
+        header(s, "apikana_index_misses_total", "counter", "Requests not found in the in-memory index.");
+        line(s, "apikana_index_misses_total", indexMisses.sum());
+        header(s, "apikana_not_modified_total", "counter", "Requests answered with 304 Not Modified.");
+        line(s, "apikana_not_modified_total", notModified.sum());
+
+        header(s, "apikana_threads", "gauge", "Threads of the server thread pool.");
+        line(s, "apikana_threads{state=\"all\"}", threadPool.getThreads());
+        line(s, "apikana_threads{state=\"idle\"}", threadPool.getIdleThreads());
+        if (threadPool instanceof QueuedThreadPool) {
+            final QueuedThreadPool pool = (QueuedThreadPool) threadPool;
+            line(s, "apikana_threads{state=\"busy\"}", pool.getBusyThreads());
+            line(s, "apikana_threads{state=\"max\"}", pool.getMaxThreads());
+            header(s, "apikana_thread_queue_size", "gauge", "Jobs waiting for a thread.");
+            line(s, "apikana_thread_queue_size", pool.getQueueSize());
+        }
+        header(s, "apikana_threads_low", "gauge", "1 if the thread pool is low on threads.");
+        line(s, "apikana_threads_low", threadPool.isLowOnThreads() ? 1 : 0);
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        header(s, "jvm_memory_bytes", "gauge", "JVM memory usage.");
+        memory(s, "heap", memory.getHeapMemoryUsage());
+        memory(s, "nonheap", memory.getNonHeapMemoryUsage());
+        header(s, "apikana_uptime_seconds", "gauge", "Time since the server started.");
+        s.append("apikana_uptime_seconds ").append(seconds(System.currentTimeMillis() - start)).append('\n');
+        return s.toString();
+    }
+
+    private static void memory(StringBuilder s, String area, MemoryUsage usage) {
+        line(s, "jvm_memory_bytes{area=\"" + area + "\",kind=\"used\"}", usage.getUsed());
+        line(s, "jvm_memory_bytes{area=\"" + area + "\",kind=\"committed\"}", usage.getCommitted());
+        line(s, "jvm_memory_bytes{area=\"" + area + "\",kind=\"max\"}", usage.getMax());
+    }
+
+    private static void header(StringBuilder s, String name, String type, String help) {
+        s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        s.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder s, String name, long value) {
+        s.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+}
@@ -5,14 +5,18 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * Stop a possibly running HTTP server.
+ * The port chosen by the generate or watch goal is taken from target/apikana-serve.port if it exists.
  */
-@Mojo(name = "stop-server", defaultPhase = LifecyclePhase.PRE_CLEAN, requiresProject = false)
+@Mojo(name = "stop-server", defaultPhase = LifecyclePhase.PRE_CLEAN, requiresProject = false, threadSafe = true)
 public class StopServerMojo extends AbstractMojo {
     /**
      * The port of the HTTP server.
@@ -20,9 +24,13 @@ public class StopServerMojo extends AbstractMojo {
     @Parameter(defaultValue = "8333", property = "apikana.port")
     private int port;
 
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
+
     public void execute() {
+        final File portFile = buildDirectory == null ? null : new File(buildDirectory, AbstractApikanaMojo.SERVE_PORT);
         try {
-            final URL url = new URL("http://127.0.0.1:" + port + "/close");
+            final URL url = new URL("http://127.0.0.1:" + servedPort(portFile) + "/close");
             HttpURLConnection con = (HttpURLConnection) url.openConnection();
             con.setRequestMethod("GET");
             con.getInputStream();
@@ -30,5 +38,19 @@ public class StopServerMojo extends AbstractMojo {
         } catch (IOException e) {
             //ignore
         }
+        if (portFile != null) {
+            portFile.delete();
+        }
+    }
+
+    private int servedPort(File portFile) {
+        if (portFile != null && portFile.isFile()) {
+            try {
+                return Integer.parseInt(new String(Files.readAllBytes(portFile.toPath()), StandardCharsets.US_ASCII).trim());
+            } catch (IOException | NumberFormatException e) {
+                getLog().debug("Could not read " + portFile + ": " + e.getMessage());
+            }
+        }
+        return port;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package org.swisspush.apikana;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.SessionData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The style jars of a chain of parent projects, resolved and scanned once per maven session
+ * and shared by all modules with the same parents.
+ * The layers are ordered by precedence, the nearest parent first.
+ */
+class StyleLayers {
+    private static final String KEY = StyleLayers.class.getName();
+
+    private final ConcurrentMap<String, List<ModelJar>> chains = new ConcurrentHashMap<>();
+
+    private StyleLayers() {
+    }
+
+    static StyleLayers of(MavenSession session) {
+        final SessionData data = session.getRepositorySession().getData();
+        StyleLayers layers = (StyleLayers) data.get(KEY);
+        if (layers == null) {
+            final StyleLayers created = new StyleLayers();
+            layers = data.set(KEY, null, created) ? created : (StyleLayers) data.get(KEY);
+        }
+        return layers;
+    }
+
+    /**
+     * @param resolver Resolves and scans the style jar of a parent, returns null if the parent has none.
+     */
+    List<ModelJar> get(MavenProject project, AbstractApikanaMojo.IoFunction<MavenProject, ModelJar> resolver) throws IOException {
+        final StringBuilder key = new StringBuilder();
+        for (MavenProject parent = project.getParent(); parent != null; parent = parent.getParent()) {
+            key.append(parent.getId()).append('|');
+        }
+        try {
+            return chains.computeIfAbsent(key.toString(), k -> {
+                final List<ModelJar> jars = new ArrayList<>();
+                for (MavenProject parent = project.getParent(); parent != null; parent = parent.getParent()) {
+                    try {
+                        final ModelJar jar = resolver.apply(parent);
+                        if (jar != null) {
+                            jars.add(jar);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return Collections.unmodifiableList(jars);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.swisspush.apikana;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.DefaultHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.Handler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Generate the API and regenerate it whenever the API file, the models or the style change.
+ * The generated documentation is served and the browser is reloaded after each regeneration.
+ * Use the stop-server goal or Ctrl-C to stop watching.
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE, requiresDirectInvocation = true)
+public class WatchMojo extends GenerateMojo {
+    private static final String RELOAD_SCRIPT = "<script>(function poll(v){" +
+            "fetch('/reload?version='+v).then(function(r){return r.text()})" +
+            ".then(function(n){if(n!=v)location.reload();else poll(v)})" +
+            ".catch(function(){setTimeout(function(){poll(v)},1000)})})(%d)</script>";
+
+    /**
+     * The number of milliseconds to wait for further changes before regenerating.
+     */
+    @Parameter(defaultValue = "300", property = "apikana.watch-delay")
+    private int watchDelay;
+
+    private final Object lock = new Object();
+    private volatile boolean closed;
+    private int version;
+
+    public void execute() throws MojoExecutionException {
+        if (isPom()) {
+            getLog().info("Packaging is pom. Nothing to watch.");
+            return;
+        }
+        final boolean serveApi = serve;
+        final boolean open = openBrowser;
+        //the documentation is served by this goal, apikana only needs to generate it
+        serve = false;
+        openBrowser = false;
+        super.execute();
+        Server server = null;
+        try (final WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            for (final ApiSpec spec : specs()) {
+                register(watcher, file(spec.getApi()).getParentFile());
+                if (spec.getModels() != null && spec.getModels().trim().length() > 0) {
+                    register(watcher, file(spec.getModels()));
+                }
+            }
+            register(watcher, file(style));
+            if (serveApi) {
+                server = new Server(port);
+                server.setHandler(createHandlers(specs().get(0)));
+                server.start();
+                writeServePort(port);
+                getLog().info("Serving API at http://localhost:" + port);
+                if (open) {
+                    openBrowser();
+                }
+            }
+            watch(watcher);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Problem watching API", e);
+        } finally {
+            if (server != null) {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    getLog().warn("Could not stop server", e);
+                }
+            }
+        }
+    }
+
+    private void watch(WatchService watcher) throws Exception {
+        while (!closed) {
+            final WatchKey first = watcher.poll(1, TimeUnit.SECONDS);
+            if (first == null) {
+                continue;
+            }
+            //debounce: collect events until nothing happens for watchDelay ms
+            final Set<Path> changes = new HashSet<>();
+            WatchKey key = first;
+            while (key != null) {
+                final Path dir = (Path) key.watchable();
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() != OVERFLOW) {
+                        final Path changed = dir.resolve((Path) event.context());
+                        changes.add(changed);
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                            register(watcher, changed.toFile());
+                        }
+                    }
+                }
+                key.reset();
+                key = watcher.poll(watchDelay, TimeUnit.MILLISECONDS);
+            }
+            regenerate(changes);
+        }
+    }
+
+    private void regenerate(Set<Path> changes) throws Exception {
+        final Path styleDir = file(style).toPath();
+        final Set<Path> styleChanges = new HashSet<>();
+        final Set<Path> apiChanges = new HashSet<>();
+        for (final Path change : changes) {
+            (change.startsWith(styleDir) ? styleChanges : apiChanges).add(change);
+        }
+        final long start = System.currentTimeMillis();
+        final List<ApiSpec> affected = affectedSpecs(apiChanges);
+        for (final ApiSpec spec : specs()) {
+            //a regenerated API gets the whole style anyway
+            if (!affected.contains(spec)) {
+                copyStyle(spec, styleDir, styleChanges);
+            }
+        }
+        if (!affected.isEmpty()) {
+            try {
+                runApikana(affected);
+            } catch (Exception e) {
+                getLog().error("Problem running apikana", e);
+                return;
+            }
+        }
+        getLog().info("Regenerated " + (affected.isEmpty() ? "style" : affected.stream().map(ApiSpec::toString).collect(Collectors.joining(", ")))
+                + " in " + (System.currentTimeMillis() - start) + " ms.");
+        synchronized (lock) {
+            version++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the APIs that must be generated again because of the changed files.
+     * A changed API file only affects its API, other files affect all APIs whose API or models directory contains them.
+     */
+    private List<ApiSpec> affectedSpecs(Set<Path> changes) throws MojoExecutionException {
+        final List<ApiSpec> specs = specs();
+        final Set<ApiSpec> affected = new HashSet<>();
+        for (final Path change : changes) {
+            final List<ApiSpec> containing = new ArrayList<>();
+            for (final ApiSpec spec : specs) {
+                final File api = file(spec.getApi());
+                if (change.equals(api.toPath())) {
+                    containing.clear();
+                    containing.add(spec);
+                    break;
+                }
+                if (change.startsWith(api.getParentFile().toPath())
+                        || (spec.getModels() != null && spec.getModels().trim().length() > 0 && change.startsWith(file(spec.getModels()).toPath()))) {
+                    containing.add(spec);
+                }
+            }
+            //a change we can't attribute regenerates everything
+            affected.addAll(containing.isEmpty() ? specs : containing);
+        }
+        return specs.stream().filter(affected::contains).collect(Collectors.toList());
+    }
+
+    private void copyStyle(ApiSpec spec, Path styleDir, Set<Path> changes) throws IOException {
+        for (final Path change : changes) {
+            final Path target = file(spec.output() + "/ui/style").toPath().resolve(styleDir.relativize(change));
+            if (Files.isRegularFile(change)) {
+                Files.createDirectories(target.getParent());
+                IoUtils.copy(change, target);
+            } else if (!Files.exists(change)) {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    private void register(WatchService watcher, File dir) throws IOException {
+        if (dir.isDirectory()) {
+            try (final Stream<Path> dirs = Files.walk(dir.toPath())) {
+                for (final Path path : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                    path.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+        }
+    }
+
+    private void openBrowser() {
+        try {
+            Desktop.getDesktop().browse(new URI("http://localhost:" + port));
+        } catch (Exception e) {
+            getLog().info("Could not open browser: " + e.getMessage());
+        }
+    }
+
+    private HandlerList createHandlers(ApiSpec home) {
+        final ResourceHandler resources = new ResourceHandler();
+        resources.setResourceBase(file(OUTPUT).getAbsolutePath());
+        resources.setDirectoriesListed(false);
+        final HandlerList handlers = new HandlerList();
+        handlers.setHandlers(new Handler[]{new WatchHandler(home), resources, new DefaultHandler()});
+        return handlers;
+    }
+
+    private class WatchHandler extends AbstractHandler {
+        private final ApiSpec home;
+
+        WatchHandler(ApiSpec home) {
+            this.home = home;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if ("/".equals(target)) {
+                response.sendRedirect("/" + home.prefix() + "ui/index.html?url=../model/openapi/api.yaml");
+                baseRequest.setHandled(true);
+            } else if ("/close".equals(target)) {
+                closed = true;
+                baseRequest.setHandled(true);
+            } else if ("/reload".equals(target)) {
+                response.setContentType("text/plain");
+                response.getWriter().print(awaitVersion(request.getParameter("version")));
+                baseRequest.setHandled(true);
+            } else if (target.endsWith(".html")) {
+                final File html = new File(file(OUTPUT), target);
+                if (html.isFile()) {
+                    final int current;
+                    synchronized (lock) {
+                        current = version;
+                    }
+                    final String content = new String(Files.readAllBytes(html.toPath()), StandardCharsets.UTF_8);
+                    response.setContentType("text/html;charset=utf-8");
+                    response.setHeader("Cache-Control", "no-cache");
+                    response.getWriter().print(content + String.format(RELOAD_SCRIPT, current));
+                    baseRequest.setHandled(true);
+                }
+            }
+        }
+
+        private int awaitVersion(String seen) {
+            final long end = System.currentTimeMillis() + 25000;
+            synchronized (lock) {
+                try {
+                    while (Integer.toString(version).equals(seen) && !closed && System.currentTimeMillis() < end) {
+                        lock.wait(1000);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return version;
+            }
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package org.swisspush.apikana;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Builds a zip file whose entries are compressed in parallel.
+ * The entries are written in the order they have been added, so the result does not depend on the scheduling of the compression.
+ * Entries with content that is already compressed are stored without compression.
+ * When the entries of a former version of the zip are given, unchanged entries are taken from there instead of compressing them again.
+ * Finished entries are written right away, so only a bounded number of compressed entries is held in memory.
+ * Added entries get the same modification time, so the same content always gives the same zip.
+ */
+class ZipBuilder implements Closeable {
+    private static final Set<String> PRECOMPRESSED = new HashSet<>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "woff", "woff2", "gz", "br", "zip", "jar", "mp4"));
+    private static final Set<String> TEXT = new HashSet<>(Arrays.asList(
+            "html", "htm", "js", "css", "json", "yaml", "yml", "ts", "svg", "map", "txt", "md", "xml"));
+    private static final int MIN_GZIP_SIZE = 256;
+    private static final int MAX_PENDING = 64;
+    static final int UNIX = 3;
+    static final long DEFAULT_TIME = Instant.parse("1980-01-01T00:00:00Z").toEpochMilli();
+
+    private final File file;
+    private final int level;
+    private final long time;
+    private final ExecutorService executor;
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final List<Entry> written = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Map<String, Entry> previous = new HashMap<>();
+    private final Map<File, FileChannel> sources = new HashMap<>();
+    private final ByteBuffer copyBuffer = ByteBuffer.allocate(65536);
+    private CountingOutputStream out;
+    private boolean failed;
+
+    /**
+     * @param millis the modification time of all entries.
+     */
+    ZipBuilder(File file, int level, long millis, ExecutorService executor) {
+        this.file = file;
+        this.level = level;
+        this.time = dosTime(millis);
+        this.executor = executor;
+    }
+
+    /**
+     * Reuse the given entries if an added file has the same name, size, checksum and time.
+     */
+    public void reuse(List<Entry> entries) {
+        for (final Entry entry : entries) {
+            previous.put(entry.name, entry);
+        }
+    }
+
+    public void addManifest(Manifest manifest) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        addDirEntry("META-INF/");
+        addResource(JarFile.MANIFEST_NAME, out.toByteArray());
+    }
+
+    public void addDir(File source, String target) throws IOException {
+        addDir(source, target, false);
+    }
+
+    /**
+     * Add a directory and, if gzipVariants is set, a gzipped variant "name.gz" of all text files, to be served to clients accepting gzip.
+     */
+    public void addDir(File source, String target, boolean gzipVariants) throws IOException {
+        if (!source.exists()) {
+            return;
+        }
+        //add directory entries for all parents
+        int pos = 0;
+        while (true) {
+            pos = target.indexOf('/', pos + 1);
+            if (pos < 0) {
+                break;
+            }
+            addDirEntry(target.substring(0, pos));
+        }
+        final Path sourcePath = source.toPath();
+        final List<Path> paths;
+        try (final Stream<Path> walk = Files.walk(sourcePath)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        }
+        for (final Path path : paths) {
+            final String name = (target.length() > 0 ? target + "/" : "") + sourcePath.relativize(path).toString().replace('\\', '/');
+            if (name.length() > 0) {
+                if (Files.isDirectory(path)) {
+                    addDirEntry(name);
+                } else {
+                    addFile(name, path);
+                    if (gzipVariants && TEXT.contains(extension(name)) && names.add(name + ".gz")) {
+                        add(executor.submit(() -> gzipVariant(name + ".gz", Files.readAllBytes(path))));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a directory, keeping the unix file modes and symbolic links.
+     */
+    public void addTree(File source, String target) throws IOException {
+        final Path sourcePath = source.toPath();
+        final List<Path> paths;
+        try (final Stream<Path> walk = Files.walk(sourcePath)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        }
+        final boolean posix = sourcePath.getFileSystem().supportedFileAttributeViews().contains("posix");
+        for (final Path path : paths) {
+            final String relative = sourcePath.relativize(path).toString().replace('\\', '/');
+            final String name = relative.length() == 0 ? target : target.length() > 0 ? target + "/" + relative : relative;
+            if (name.length() == 0 || !names.add(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) ? name + "/" : name)) {
+                continue;
+            }
+            if (Files.isSymbolicLink(path)) {
+                final byte[] link = Files.readSymbolicLink(path).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8);
+                add(CompletableFuture.completedFuture(withMode(compressed(name, link), 0120777)));
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                add(CompletableFuture.completedFuture(withMode(new Entry(name + "/", ZipEntry.STORED, 0, 0, new byte[0], time), 040755)));
+            } else {
+                final int mode = posix ? 0100000 | mode(Files.getPosixFilePermissions(path)) : 0100644;
+                add(executor.submit(() -> withMode(compressed(name, Files.readAllBytes(path)), mode)));
+            }
+        }
+    }
+
+    private static int mode(Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (final PosixFilePermission permission : permissions) {
+            //the enum is ordered from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+            mode |= 0400 >> permission.ordinal();
+        }
+        return mode;
+    }
+
+    private static Entry withMode(Entry entry, int mode) {
+        final int attributes = mode << 16;
+        if (entry.externalAttributes == attributes) {
+            return entry;
+        }
+        //entries can be shared, so don't change them
+        final Entry copy = new Entry(entry.name, entry.method, entry.crc, entry.size, entry.compressedSize, entry.time,
+                entry.data, entry.source, entry.localHeader);
+        copy.externalAttributes = attributes;
+        copy.madeBy = UNIX << 8 | 20;
+        return copy;
+    }
+
+    public void addFile(String name, Path path) throws IOException {
+        if (names.add(name)) {
+            add(executor.submit(() -> compressed(name, Files.readAllBytes(path))));
+        }
+    }
+
+    public void addResource(String name, byte[] data) throws IOException {
+        if (names.add(name)) {
+            add(executor.submit(() -> compressed(name, data)));
+        }
+    }
+
+    public void addDirEntry(String dir) throws IOException {
+        final String name = dir.endsWith("/") ? dir : dir + "/";
+        if (names.add(name)) {
+            add(CompletableFuture.completedFuture(new Entry(name, ZipEntry.STORED, 0, 0, new byte[0], time)));
+        }
+    }
+
+    /**
+     * Add the given class and all its nested classes.
+     */
+    public void addClass(Class<?> clazz) throws IOException {
+        final String name = clazz.getName().replace('.', '/') + ".class";
+        try (final InputStream in = ZipBuilder.class.getResourceAsStream("/" + name)) {
+            addResource(name, IoUtils.readAll(in));
+        }
+        for (final Class<?> nested : clazz.getDeclaredClasses()) {
+            addClass(nested);
+        }
+    }
+
+    /**
+     * Add entries as they are, without compressing them again.
+     */
+    public void addRaw(List<Entry> raw) throws IOException {
+        for (final Entry entry : raw) {
+            if (names.add(entry.name)) {
+                add(CompletableFuture.completedFuture(entry));
+            }
+        }
+    }
+
+    /**
+     * Write the finished entries at the head of the queue.
+     * If too many entries are pending, wait for the oldest one, so the compressed data of at most MAX_PENDING entries is in memory.
+     */
+    private void add(Future<Entry> entry) throws IOException {
+        pending.add(entry);
+        try {
+            while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > MAX_PENDING)) {
+                write(get(pending.remove()));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        if (entry == null) {
+            //a variant that was not worth it
+            return;
+        }
+        if (out == null) {
+            out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        }
+        offsets.add(out.count);
+        writeLocalHeader(out, entry);
+        writeData(entry);
+        written.add(entry.withoutData());
+    }
+
+    private void writeData(Entry entry) throws IOException {
+        if (entry.source == null) {
+            out.write(entry.data);
+            return;
+        }
+        //raw entries of other zips are copied from there
+        FileChannel channel = sources.get(entry.source);
+        if (channel == null) {
+            channel = FileChannel.open(entry.source.toPath(), StandardOpenOption.READ);
+            sources.put(entry.source, channel);
+        }
+        long pos = ZipReader.dataStart(channel, entry);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            copyBuffer.clear();
+            copyBuffer.limit((int) Math.min(copyBuffer.capacity(), remaining));
+            final int read = channel.read(copyBuffer, pos);
+            if (read < 0) {
+                throw new ZipException("Truncated entry " + entry.name + " in " + entry.source);
+            }
+            out.write(copyBuffer.array(), 0, read);
+            pos += read;
+            remaining -= read;
+        }
+    }
+
+    private Entry compressed(String name, byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        final Entry old = previous.get(name);
+        if (old != null && old.size == data.length && old.crc == crc.getValue() && old.time == time) {
+            return old;
+        }
+        if (!isPrecompressed(name) && data.length > 0) {
+            final Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                final byte[] buf = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+                if (out.size() < data.length) {
+                    return new Entry(name, ZipEntry.DEFLATED, crc.getValue(), data.length, out.toByteArray(), time);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return new Entry(name, ZipEntry.STORED, crc.getValue(), data.length, data, time);
+    }
+
+    private Entry gzipVariant(String name, byte[] data) throws IOException {
+        if (data.length < MIN_GZIP_SIZE) {
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        //GZIPOutputStream writes no timestamp, so the variant only depends on the data
+        try (final GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(data);
+        }
+        return out.size() < data.length * 9 / 10 ? compressed(name, out.toByteArray()) : null;
+    }
+
+    private static boolean isPrecompressed(String name) {
+        return PRECOMPRESSED.contains(extension(name));
+    }
+
+    private static String extension(String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && dot > name.lastIndexOf('/') ? name.substring(dot + 1).toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    /**
+     * Write the remaining entries and the central directory.
+     * If adding an entry has failed, the zip is left incomplete.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                while (!pending.isEmpty()) {
+                    write(get(pending.remove()));
+                }
+                if (out == null) {
+                    out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+                }
+                final long centralStart = out.count;
+                for (int i = 0; i < written.size(); i++) {
+                    writeCentralHeader(out, written.get(i), offsets.get(i));
+                }
+                writeEnd(out, written.size(), out.count - centralStart, centralStart);
+            }
+        } finally {
+            for (final Future<Entry> future : pending) {
+                future.cancel(true);
+            }
+            for (final FileChannel channel : sources.values()) {
+                channel.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static Entry get(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing zip entries.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Problem compressing zip entry", e.getCause());
+        }
+    }
+
+    private void writeLocalHeader(CountingOutputStream out, Entry entry) throws IOException {
+        final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        //a local zip64 extra field always contains both sizes
+        final boolean zip64 = entry.size >= 0xffffffffL;
+        out.writeInt(0x04034b50);
+        out.writeShort(zip64 ? 45 : entry.method == ZipEntry.DEFLATED ? 20 : 10);
+        out.writeShort(0x0800);
+        out.writeShort(entry.method);
+        out.writeInt(entry.time);
+        out.writeInt(entry.crc);
+        out.writeInt(zip64 ? 0xffffffffL : entry.compressedSize);
+        out.writeInt(zip64 ? 0xffffffffL : entry.size);
+        out.writeShort(name.length);
+        out.writeShort(zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            out.writeShort(0x0001);
+            out.writeShort(16);
+            out.writeLong(entry.size);
+            out.writeLong(entry.compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(CountingOutputStream out, Entry entry, long offset) throws IOException {
+        final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        //values that don't fit into 32 bit go into the zip64 extra field
+        final boolean bigSize = entry.size >= 0xffffffffL;
+        final boolean bigCompressed = entry.compressedSize >= 0xffffffffL;
+        final boolean bigOffset = offset >= 0xffffffffL;
+        final int zip64Len = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        final int version = zip64Len > 0 ? 45 : entry.method == ZipEntry.DEFLATED ? 20 : 10;
+        out.writeInt(0x02014b50);
+        //the host in version made by tells how to read the external attributes, keep it for raw entries of other zips
+        out.writeShort(entry.madeBy < 0 ? Math.max(20, version) : (entry.madeBy & 0xff00) | Math.max(entry.madeBy & 0xff, version));
+        out.writeShort(version);
+        out.writeShort(0x0800);
+        out.writeShort(entry.method);
+        out.writeInt(entry.time);
+        out.writeInt(entry.crc);
+        out.writeInt(bigCompressed ? 0xffffffffL : entry.compressedSize);
+        out.writeInt(bigSize ? 0xffffffffL : entry.size);
+        out.writeShort(name.length);
+        out.writeShort(zip64Len == 0 ? 0 : zip64Len + 4);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeInt(entry.externalAttributes);
+        out.writeInt(bigOffset ? 0xffffffffL : offset);
+        out.write(name);
+        if (zip64Len > 0) {
+            out.writeShort(0x0001);
+            out.writeShort(zip64Len);
+            if (bigSize) {
+                out.writeLong(entry.size);
+            }
+            if (bigCompressed) {
+                out.writeLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    private void writeEnd(CountingOutputStream out, int count, long size, long offset) throws IOException {
+        final boolean zip64 = count >= 0xffff || size >= 0xffffffffL || offset >= 0xffffffffL;
+        if (zip64) {
+            //a node_modules tree easily has more than 65535 entries
+            final long end64 = out.count;
+            out.writeInt(0x06064b50);
+            out.writeLong(44);
+            out.writeShort(45);
+            out.writeShort(45);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(count);
+            out.writeLong(count);
+            out.writeLong(size);
+            out.writeLong(offset);
+            out.writeInt(0x07064b50);
+            out.writeInt(0);
+            out.writeLong(end64);
+            out.writeInt(1);
+        }
+        out.writeInt(0x06054b50);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(Math.min(count, 0xffff));
+        out.writeShort(Math.min(count, 0xffff));
+        out.writeInt(Math.min(size, 0xffffffffL));
+        out.writeInt(Math.min(offset, 0xffffffffL));
+        out.writeShort(0);
+    }
+
+    static long dosTime(long millis) {
+        //in UTC, so the zip does not depend on the time zone of the build
+        final LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16)
+                | (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long time;
+        //either the compressed data, or the zip file it is in and the position of its local header there
+        final byte[] data;
+        final File source;
+        final long localHeader;
+        int externalAttributes;
+        int madeBy = -1;
+
+        Entry(String name, int method, long crc, long size, byte[] data, long time) {
+            this(name, method, crc, size, data.length, time, data, null, -1);
+        }
+
+        Entry(String name, int method, long crc, long size, long compressedSize, long time, File source, long localHeader) {
+            this(name, method, crc, size, compressedSize, time, null, source, localHeader);
+        }
+
+        private Entry(String name, int method, long crc, long size, long compressedSize, long time, byte[] data, File source, long localHeader) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.time = time;
+            this.data = data;
+            this.source = source;
+            this.localHeader = localHeader;
+        }
+
+        /**
+         * @return the compressed data, read from the source zip if needed.
+         */
+        byte[] data() throws IOException {
+            if (data != null) {
+                return data;
+            }
+            try (final FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                return ZipReader.rawData(channel, this);
+            }
+        }
+
+        /**
+         * @return this entry without its data, as needed for the central directory.
+         */
+        Entry withoutData() {
+            if (data == null) {
+                return this;
+            }
+            final Entry header = new Entry(name, method, crc, size, compressedSize, time, null, null, -1);
+            header.externalAttributes = externalAttributes;
+            header.madeBy = madeBy;
+            return header;
+        }
+
+        /**
+         * @return if the external attributes contain unix file modes.
+         */
+        boolean isUnix() {
+            return madeBy >>> 8 == UNIX;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        void writeShort(int v) throws IOException {
+            write(v & 0xff);
+            write((v >>> 8) & 0xff);
+        }
+
+        void writeInt(long v) throws IOException {
+            writeShort((int) (v & 0xffff));
+            writeShort((int) ((v >>> 16) & 0xffff));
+        }
+
+        void writeLong(long v) throws IOException {
+            writeInt(v & 0xffffffffL);
+            writeInt(v >>> 32);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.swisspush.apikana;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip file in their compressed form, so they can be copied into another zip without inflating them.
+ */
+class ZipReader {
+    private ZipReader() {
+    }
+
+    /**
+     * Only the central directory is read, the data of the entries is read from the file when it is needed.
+     */
+    public static List<ZipBuilder.Entry> readRaw(File zip) throws IOException {
+        try (final FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            //the end record is at the end of the file, followed by a comment of at most 64k and preceded by the zip64 locator
+            final int tailLen = (int) Math.min(channel.size(), 20 + 22 + 0xffff);
+            final ByteBuffer tail = read(channel, channel.size() - tailLen, tailLen, zip);
+            final int end = findEnd(tail, zip);
+            long count = tail.getShort(end + 10) & 0xffff;
+            long dirSize = tail.getInt(end + 12) & 0xffffffffL;
+            long pos = tail.getInt(end + 16) & 0xffffffffL;
+            if ((count == 0xffff || pos == 0xffffffffL) && end >= 20 && tail.getInt(end - 20) == 0x07064b50) {
+                //zip64 end record, its position is given by the locator in front of the end record
+                final ByteBuffer end64 = read(channel, tail.getLong(end - 12), 56, zip);
+                if (end64.getInt(0) != 0x06064b50) {
+                    throw new ZipException("Invalid zip64 end record in " + zip);
+                }
+                count = end64.getLong(32);
+                dirSize = end64.getLong(40);
+                pos = end64.getLong(48);
+            }
+            final ByteBuffer buf = read(channel, pos, toInt(dirSize, zip), zip);
+            final List<ZipBuilder.Entry> entries = new ArrayList<>();
+            int p = 0;
+            for (long i = 0; i < count; i++) {
+                if (p + 46 > buf.limit() || buf.getInt(p) != 0x02014b50) {
+                    throw new ZipException("Invalid central directory in " + zip);
+                }
+                final int madeBy = buf.getShort(p + 4) & 0xffff;
+                final int method = buf.getShort(p + 10) & 0xffff;
+                final long time = buf.getInt(p + 12) & 0xffffffffL;
+                final long crc = buf.getInt(p + 16) & 0xffffffffL;
+                long compressedSize = buf.getInt(p + 20) & 0xffffffffL;
+                long size = buf.getInt(p + 24) & 0xffffffffL;
+                final int nameLen = buf.getShort(p + 28) & 0xffff;
+                final int extraLen = buf.getShort(p + 30) & 0xffff;
+                final int commentLen = buf.getShort(p + 32) & 0xffff;
+                final int externalAttributes = buf.getInt(p + 38);
+                long offset = buf.getInt(p + 42) & 0xffffffffL;
+                final String name = new String(buf.array(), p + 46, nameLen, StandardCharsets.UTF_8);
+                //the zip64 extra field contains the values that don't fit into the header, in this order
+                for (int extra = p + 46 + nameLen; extra + 4 <= p + 46 + nameLen + extraLen; ) {
+                    final int id = buf.getShort(extra) & 0xffff;
+                    final int len = buf.getShort(extra + 2) & 0xffff;
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        if (size == 0xffffffffL) {
+                            size = buf.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xffffffffL) {
+                            compressedSize = buf.getLong(field);
+                            field += 8;
+                        }
+                        if (offset == 0xffffffffL) {
+                            offset = buf.getLong(field);
+                        }
+                    }
+                    extra += 4 + len;
+                }
+                final ZipBuilder.Entry entry = new ZipBuilder.Entry(name, method, crc, size, compressedSize, time, zip, offset);
+                entry.madeBy = madeBy;
+                entry.externalAttributes = externalAttributes;
+                entries.add(entry);
+                p += 46 + nameLen + extraLen + commentLen;
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * @return the position of the data of an entry read by readRaw.
+     */
+    static long dataStart(FileChannel channel, ZipBuilder.Entry entry) throws IOException {
+        final ByteBuffer local = read(channel, entry.localHeader, 30, entry.source);
+        if (local.getInt(0) != 0x04034b50) {
+            throw new ZipException("Invalid local header of " + entry.name + " in " + entry.source);
+        }
+        return entry.localHeader + 30 + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+    }
+
+    /**
+     * @return the compressed data of an entry read by readRaw.
+     */
+    static byte[] rawData(FileChannel channel, ZipBuilder.Entry entry) throws IOException {
+        return read(channel, dataStart(channel, entry), toInt(entry.compressedSize, entry.source), entry.source).array();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long pos, int len, File zip) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) {
+                throw new ZipException("Unexpected end of " + zip);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static int toInt(long value, File zip) throws ZipException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new ZipException("Zip file " + zip + " is too large.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Extract a zip file, restoring unix file modes and symbolic links.
+     * Entries and symbolic links pointing outside of the directory are rejected, also when they'd get there through another link.
+     */
+    public static void extract(File zip, Path dir) throws IOException {
+        final boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        final Path base = dir.toAbsolutePath().normalize();
+        Files.createDirectories(base);
+        final Path root = base.toRealPath();
+        final List<Path> links = new ArrayList<>();
+        try (final FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            for (final ZipBuilder.Entry entry : readRaw(zip)) {
+                final Path target = base.resolve(entry.name).normalize();
+                if (!target.startsWith(base) || target.equals(base)) {
+                    throw new ZipException("Entry " + entry.name + " is outside of the target directory.");
+                }
+                final int mode = entry.externalAttributes >>> 16;
+                if (entry.name.endsWith("/")) {
+                    createDirectories(root, target);
+                    continue;
+                }
+                createDirectories(root, target.getParent());
+                final byte[] data = inflate(entry, rawData(channel, entry));
+                if (posix && entry.isUnix() && (mode & 0170000) == 0120000) {
+                    final Path link = Paths.get(new String(data, StandardCharsets.UTF_8));
+                    //.. is only allowed at the start, after a name it could walk up from another link's target
+                    if (link.isAbsolute() || !isUpwards(link)
+                            || !target.getParent().toRealPath().resolve(link).normalize().startsWith(root)) {
+                        throw new ZipException("Symbolic link " + entry.name + " -> " + link + " points outside of the target directory.");
+                    }
+                    Files.createSymbolicLink(target, link);
+                    checkLink(root, target);
+                    links.add(target);
+                } else {
+                    Files.write(target, data);
+                    if (posix && entry.isUnix() && (mode & 0111) != 0) {
+                        final Set<PosixFilePermission> permissions = new HashSet<>(Files.getPosixFilePermissions(target));
+                        permissions.add(PosixFilePermission.OWNER_EXECUTE);
+                        if ((mode & 0010) != 0) {
+                            permissions.add(PosixFilePermission.GROUP_EXECUTE);
+                        }
+                        if ((mode & 0001) != 0) {
+                            permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+                        }
+                        Files.setPosixFilePermissions(target, permissions);
+                    }
+                }
+            }
+        }
+        //links to entries that came later could not be resolved when they were created
+        for (final Path link : links) {
+            checkLink(root, link);
+        }
+    }
+
+    private static boolean isUpwards(Path link) {
+        boolean names = false;
+        for (final Path part : link) {
+            if ("..".equals(part.toString())) {
+                if (names) {
+                    return false;
+                }
+            } else if (!".".equals(part.toString())) {
+                names = true;
+            }
+        }
+        return true;
+    }
+
+    private static void createDirectories(Path root, Path dir) throws IOException {
+        //the existing part of the path could lead through a symbolic link
+        Path existing = dir;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null || !existing.toRealPath().startsWith(root)) {
+            throw new ZipException("Directory " + dir + " is outside of the target directory.");
+        }
+        Files.createDirectories(dir);
+    }
+
+    private static void checkLink(Path root, Path link) throws IOException {
+        //the lexical check can be fooled by links in the link target, so check where it really leads
+        if (Files.exists(link) && !link.toRealPath().startsWith(root)) {
+            Files.delete(link);
+            throw new ZipException("Symbolic link " + link + " points outside of the target directory.");
+        }
+    }
+
+    public static byte[] inflate(ZipBuilder.Entry entry) throws IOException {
+        return inflate(entry, entry.data());
+    }
+
+    private static byte[] inflate(ZipBuilder.Entry entry, byte[] data) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            return data;
+        }
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) entry.size);
+            final byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                final int read = inflater.inflate(buf);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated entry " + entry.name);
+                }
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int findEnd(ByteBuffer buf, File zip) throws ZipException {
+        //the end record is at the end of the file, followed by a comment of at most 64k
+        for (int pos = buf.limit() - 22; pos >= Math.max(0, buf.limit() - 22 - 0xffff); pos--) {
+            if (buf.getInt(pos) == 0x06054b50) {
+                return pos;
+            }
+        }
+        throw new ZipException("No end of central directory found in " + zip);
+    }
+}
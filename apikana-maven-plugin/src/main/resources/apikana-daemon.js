@@ -0,0 +1,145 @@
+// Long-lived apikana process. It keeps the toolchain of apikana loaded and runs one request after the other.
+// Usage: node apikana-daemon.js <portFile> <idleMillis> <nodeDir> <identity>
+var net = require('net');
+var fs = require('fs');
+var path = require('path');
+var crypto = require('crypto');
+
+var portFile = process.argv[2];
+var idleMillis = parseInt(process.argv[3], 10);
+var baseDir = path.resolve(process.argv[4]);
+var identity = process.argv[5];
+var apikanaDir = path.join(baseDir, 'node_modules/apikana');
+var pack = require(path.join(apikanaDir, 'package.json'));
+var bin = path.join(apikanaDir, typeof pack.bin === 'string' ? pack.bin : pack.bin.apikana);
+var token = crypto.randomBytes(16).toString('hex');
+var realExit = process.exit;
+var realStdout = process.stdout.write;
+var realStderr = process.stderr.write;
+var busy = false;
+var idleTimer;
+
+function shutdown() {
+    try {
+        fs.unlinkSync(portFile);
+    } catch (e) {
+        //ignore
+    }
+    realExit.call(process, 0);
+}
+
+function resetIdle() {
+    clearTimeout(idleTimer);
+    idleTimer = setTimeout(shutdown, idleMillis);
+}
+
+function send(socket, msg) {
+    socket.write(JSON.stringify(msg) + '\n');
+}
+
+function activeCount() {
+    //newer node versions don't list timers as handles
+    return process.getActiveResourcesInfo ? process.getActiveResourcesInfo().length
+        : process._getActiveHandles().length + process._getActiveRequests().length;
+}
+
+//the modules of apikana itself keep state of the previous run, so they are loaded again.
+//its dependencies, e.g. typescript, stay loaded, that's where the time is saved.
+function forgetApikana() {
+    var own = apikanaDir + path.sep;
+    var deps = path.join(apikanaDir, 'node_modules') + path.sep;
+    Object.keys(require.cache).forEach(function (file) {
+        if (file.indexOf(own) === 0 && file.indexOf(deps) !== 0) {
+            delete require.cache[file];
+        }
+    });
+}
+
+function run(socket, req) {
+    busy = true;
+    clearTimeout(idleTimer);
+    var done = false;
+    var poll;
+    var onError = function (e) {
+        send(socket, {err: String(e && e.stack || e) + '\n'});
+        finish(1);
+    };
+    var finish = function (code) {
+        if (done) {
+            return;
+        }
+        done = true;
+        clearInterval(poll);
+        process.removeListener('uncaughtException', onError);
+        process.stdout.write = realStdout;
+        process.stderr.write = realStderr;
+        process.exit = realExit;
+        process.chdir(baseDir);
+        send(socket, {exit: code || 0});
+        socket.end();
+        busy = false;
+        resetIdle();
+    };
+    process.stdout.write = function (chunk) {
+        send(socket, {out: chunk.toString()});
+        return true;
+    };
+    process.stderr.write = function (chunk) {
+        send(socket, {err: chunk.toString()});
+        return true;
+    };
+    process.exit = finish;
+    process.on('uncaughtException', onError);
+    //a standalone cli also ends when its event loop is empty, here that means no handles besides the ones of the daemon
+    var idlePolls = 0;
+    poll = setInterval(function () {
+        idlePolls = activeCount() <= baseline ? idlePolls + 1 : 0;
+        if (idlePolls >= 2) {
+            finish(0);
+        }
+    }, 100);
+    var baseline = activeCount();
+    try {
+        process.chdir(req.cwd);
+        process.argv = [process.argv[0], bin].concat(req.args);
+        forgetApikana();
+        var result = require(bin);
+        if (result && typeof result.then === 'function') {
+            result.then(function () {
+                finish(0);
+            }, onError);
+        }
+    } catch (e) {
+        onError(e);
+    }
+}
+
+var server = net.createServer(function (socket) {
+    var buffer = '';
+    socket.on('data', function (data) {
+        buffer += data.toString();
+        var nl = buffer.indexOf('\n');
+        if (nl < 0) {
+            return;
+        }
+        var req = JSON.parse(buffer.substring(0, nl));
+        if (req.token !== token) {
+            socket.destroy();
+        } else if (req.command === 'stop') {
+            socket.end();
+            shutdown();
+        } else if (busy) {
+            send(socket, {busy: true});
+            socket.end();
+        } else {
+            run(socket, req);
+        }
+    });
+    socket.on('error', function () {
+    });
+});
+
+server.listen(0, '127.0.0.1', function () {
+    fs.writeFileSync(portFile, server.address().port + ' ' + token + ' ' + identity, {mode: 384});
+    resetIdle();
+});
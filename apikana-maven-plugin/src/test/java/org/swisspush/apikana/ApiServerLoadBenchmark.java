@@ -0,0 +1,189 @@
+package org.swisspush.apikana;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Load test of the api server with the files of a typical api jar, requested by concurrent clients accepting gzip.
+ * Reports requests per second and latency percentiles of a server that finds the files on the classpath (RootResourceHandler)
+ * and of one that serves them from the in-memory index with precompressed variants (--content).
+ * Run with mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.swisspush.apikana.ApiServerLoadBenchmark
+ * -Dexec.args="[clients] [seconds]"
+ */
+public class ApiServerLoadBenchmark {
+    private static final String[] PATHS = new String[]{
+            "/index.html", "/ui/index.html", "/ui/swagger-ui-bundle.js", "/ui/swagger-ui.css",
+            "/model/openapi/api.yaml", "/model/json-schema-v4/User.json"};
+    private static final int[] SIZES = new int[]{1024, 4096, 1024 * 1024, 150 * 1024, 20 * 1024, 2048};
+
+    public static void main(String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final File dir = Files.createTempDirectory("api-load").toFile();
+        try {
+            final File jar = new File(dir, "content.jar");
+            createJar(jar);
+            System.out.println(clients + " clients, " + seconds + " s");
+            System.out.println(run("classpath", jar, false, clients, seconds));
+            System.out.println(run("index", jar, true, clients, seconds));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Start the server in its own JVM with the jar on the classpath, as when it runs from the api jar.
+     * Without --content, the content is only found on the classpath.
+     */
+    private static String run(String name, File jar, boolean indexed, int clients, int seconds) throws Exception {
+        final int port = freePort();
+        final List<String> cmd = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                //the api jar contains no logback, so jetty logs to stderr at info level
+                "-Dorg.eclipse.jetty.util.log.class=org.eclipse.jetty.util.log.StdErrLog",
+                "-cp", jar.getAbsolutePath() + File.pathSeparator + absoluteClassPath(),
+                ApiServer.class.getName(), "--port=" + port, "--browser=false"));
+        if (indexed) {
+            cmd.add("--content=" + jar.getAbsolutePath());
+        }
+        final Process server = new ProcessBuilder(cmd).directory(jar.getParentFile())
+                .redirectErrorStream(true).redirectOutput(new File(jar.getParentFile(), name + ".log")).start();
+        try {
+            awaitHealthy(port);
+            load(port, clients, 2);
+            final long[] latencies = load(port, clients, seconds);
+            Arrays.sort(latencies);
+            return String.format("%-10s %9.0f req/s   p50 %7.2f ms   p99 %7.2f ms", name,
+                    latencies.length / (double) seconds, percentile(latencies, .5), percentile(latencies, .99));
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static String absoluteClassPath() {
+        final StringBuilder s = new StringBuilder();
+        for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            s.append(s.length() == 0 ? "" : File.pathSeparator).append(new File(entry).getAbsolutePath());
+        }
+        return s.toString();
+    }
+
+    private static void awaitHealthy(int port) throws Exception {
+        final long end = System.currentTimeMillis() + 30000;
+        while (true) {
+            try {
+                final HttpURLConnection con = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/health").openConnection();
+                if (con.getResponseCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > end) {
+                    throw e;
+                }
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static long[] load(int port, int clients, int seconds) throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            final List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                final int first = i;
+                futures.add(executor.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    final byte[] buf = new byte[16384];
+                    while (System.nanoTime() < end) {
+                        final long start = System.nanoTime();
+                        fetch(port, PATHS[(first + count) % PATHS.length], buf);
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+            long[] all = new long[0];
+            for (final Future<long[]> future : futures) {
+                final long[] latencies = future.get();
+                final int pos = all.length;
+                all = Arrays.copyOf(all, pos + latencies.length);
+                System.arraycopy(latencies, 0, all, pos, latencies.length);
+            }
+            return all;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void fetch(int port, String path, byte[] buf) throws IOException {
+        final HttpURLConnection con = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        con.setRequestProperty("Accept-Encoding", "gzip");
+        if (con.getResponseCode() != 200) {
+            throw new IOException("Got " + con.getResponseCode() + " for " + path);
+        }
+        //reading to the end lets the connection be reused
+        try (final InputStream in = con.getInputStream()) {
+            while (in.read(buf) >= 0) {
+                //discard
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    private static void createJar(File jar) throws IOException {
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (int i = 0; i < PATHS.length; i++) {
+                final byte[] data = text(PATHS[i], SIZES[i]);
+                final String name = PATHS[i].substring(1);
+                out.putNextEntry(new JarEntry(name));
+                out.write(data);
+                //like PackageMojo, which stores a gzipped variant of the text files
+                final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+                try (final GZIPOutputStream gz = new GZIPOutputStream(gzip)) {
+                    gz.write(data);
+                }
+                out.putNextEntry(new JarEntry(name + ".gz"));
+                gzip.writeTo(out);
+            }
+        }
+    }
+
+    private static byte[] text(String name, int size) {
+        final StringBuilder s = new StringBuilder(size + 100);
+        for (int line = 0; s.length() < size; line++) {
+            s.append("/* ").append(name).append(" */ var value").append(line).append(" = {id: ").append(line * 31 % 977).append("};\n");
+        }
+        return s.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
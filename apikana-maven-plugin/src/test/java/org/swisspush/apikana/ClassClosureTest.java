@@ -0,0 +1,108 @@
+package org.swisspush.apikana;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.*;
+
+public class ClassClosureTest {
+    @Test
+    public void serverRunsWithOnlyTheReachableClasses() throws Exception {
+        final ClassClosure classes = PackageMojo.serverClasses();
+        assertTrue(classes.entries().size() < PackageMojo.jettyEntries().size());
+        final File dir = Files.createTempDirectory("closure").toFile();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        Process server = null;
+        try {
+            final File jar = new File(dir, "api.jar");
+            final File ui = new File(dir, "ui");
+            ui.mkdirs();
+            final StringBuilder html = new StringBuilder();
+            while (html.length() < 2000) {
+                html.append("<p>The api documentation</p>\n");
+            }
+            Files.write(new File(ui, "index.html").toPath(), html.toString().getBytes(StandardCharsets.UTF_8));
+            final Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, ApiServer.class.getName());
+            try (final ZipBuilder zip = new ZipBuilder(jar, -1, ZipBuilder.DEFAULT_TIME, executor)) {
+                zip.addManifest(manifest);
+                zip.addDir(ui, "ui", true);
+                for (final Map.Entry<String, byte[]> own : classes.ownClasses().entrySet()) {
+                    zip.addResource(own.getKey(), own.getValue());
+                }
+                zip.addRaw(classes.entries());
+            }
+            final int port = freePort();
+            server = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                    "-jar", jar.getAbsolutePath(), "--port=" + port, "--browser=false")
+                    .directory(dir).redirectErrorStream(true).redirectOutput(new File(dir, "server.log")).start();
+            awaitStart(server, port, new File(dir, "server.log"));
+            assertEquals(200, status(port, "/health", false));
+            assertEquals(200, status(port, "/metrics", false));
+            assertEquals(200, status(port, "/ui/index.html", false));
+            assertEquals(200, status(port, "/ui/index.html", true));
+            assertEquals(404, status(port, "/ui/missing.html", false));
+            assertTrue(server.isAlive());
+            //jetty catches and logs some of the classes it cannot load
+            final String log = new String(Files.readAllBytes(new File(dir, "server.log").toPath()), StandardCharsets.UTF_8);
+            assertFalse(log, log.contains("ClassNotFoundException") || log.contains("NoClassDefFoundError"));
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor();
+            }
+            executor.shutdownNow();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static void awaitStart(Process server, int port, File log) throws Exception {
+        final long end = System.currentTimeMillis() + 30000;
+        while (true) {
+            try {
+                status(port, "/health", false);
+                return;
+            } catch (IOException e) {
+                if (!server.isAlive() || System.currentTimeMillis() > end) {
+                    fail("Server did not start:\n" + new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+                }
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static int status(int port, String path, boolean gzip) throws IOException {
+        final HttpURLConnection con = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        if (gzip) {
+            con.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        final int status = con.getResponseCode();
+        try (final InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream()) {
+            if (in != null) {
+                IoUtils.readAll(in);
+            }
+        }
+        return status;
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
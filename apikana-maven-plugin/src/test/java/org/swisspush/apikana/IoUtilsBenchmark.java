@@ -0,0 +1,122 @@
+package org.swisspush.apikana;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Compares the ways of copying that IoUtils used: a small heap buffer, pooled direct buffers over channels and Files.copy.
+ * The source is a jar entry, as when dependencies are unpacked, or a file, as when the style is copied.
+ * Run with mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.swisspush.apikana.IoUtilsBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IoUtilsBenchmark {
+    @Param({"4096", "262144", "8388608"})
+    private int size;
+
+    private Path dir;
+    private Path file;
+    private Path target;
+    private JarFile jar;
+    private JarEntry entry;
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("io-benchmark");
+        final byte[] data = new byte[size];
+        //half random, so the entry compresses like a typical model file
+        new Random(42).nextBytes(data);
+        for (int i = 0; i < size; i += 2) {
+            data[i] = 'a';
+        }
+        file = dir.resolve("source");
+        Files.write(file, data);
+        target = dir.resolve("target");
+        final File jarFile = dir.resolve("source.jar").toFile();
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+            out.putNextEntry(new JarEntry("model.ts"));
+            out.write(data);
+        }
+        jar = new JarFile(jarFile);
+        entry = jar.getJarEntry("model.ts");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        jar.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public void entryHeapBuffer1k() throws IOException {
+        try (final InputStream in = jar.getInputStream(entry);
+             final OutputStream out = new FileOutputStream(target.toFile())) {
+            final byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+        }
+    }
+
+    @Benchmark
+    public void entryDirectBufferChannel() throws IOException {
+        try (final ReadableByteChannel source = Channels.newChannel(jar.getInputStream(entry));
+             final FileChannel dest = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            direct.clear();
+            while (source.read(direct) >= 0 || direct.position() > 0) {
+                direct.flip();
+                dest.write(direct);
+                direct.compact();
+            }
+        }
+    }
+
+    @Benchmark
+    public void entryIoUtils() throws IOException {
+        IoUtils.copy(jar.getInputStream(entry), target);
+    }
+
+    @Benchmark
+    public void fileTransferTo() throws IOException {
+        try (final FileChannel src = FileChannel.open(file, READ);
+             final FileChannel dest = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            long pos = 0;
+            while (pos < src.size()) {
+                pos += src.transferTo(pos, src.size() - pos, dest);
+            }
+        }
+    }
+
+    @Benchmark
+    public void fileIoUtils() throws IOException {
+        IoUtils.copy(file, target);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IoUtilsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+package org.swisspush.apikana;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ModelClassesTest {
+    private File base;
+    private File schemas;
+    private File sources;
+    private File classes;
+    private File manifest;
+
+    @Before
+    public void setup() throws IOException {
+        base = Files.createTempDirectory("model-classes").toFile();
+        schemas = new File(base, "schemas");
+        sources = new File(base, "java-gen");
+        classes = new File(base, "classes");
+        manifest = new File(base, "apikana-schemas.properties");
+        new File(sources, "p").mkdirs();
+        new File(classes, "p").mkdirs();
+        schemas.mkdirs();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(base);
+    }
+
+    @Test
+    public void classesUsingAChangedClassIndirectlyAreDeleted() throws IOException {
+        for (final String name : new String[]{"A", "B", "C", "D"}) {
+            schema(name, "");
+        }
+        final ModelClasses modelClasses = new ModelClasses(schemas, "p", sources, classes);
+        assertEquals(-1, modelClasses.clean(manifest, true));
+        source("A", "B b;");
+        source("B", "C c;");
+        source("C", "");
+        source("D", "");
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.getPath(),
+                new File(sources, "p/A.java").getPath(), new File(sources, "p/B.java").getPath(),
+                new File(sources, "p/C.java").getPath(), new File(sources, "p/D.java").getPath()));
+
+        schema("C", "\"description\": \"changed\", ");
+        assertEquals(3, modelClasses.clean(manifest, true));
+        for (final String name : new String[]{"A", "B", "C"}) {
+            assertFalse(name, new File(classes, "p/" + name + ".class").exists());
+            assertFalse(name, new File(sources, "p/" + name + ".java").exists());
+        }
+        assertTrue(new File(classes, "p/D.class").exists());
+        assertTrue(new File(sources, "p/D.java").exists());
+    }
+
+    private void schema(String name, String extra) throws IOException {
+        Files.write(new File(schemas, name + ".json").toPath(),
+                ("{" + extra + "\"type\": \"object\", \"javaType\": \"p." + name + "\"}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void source(String name, String body) throws IOException {
+        Files.write(new File(sources, "p/" + name + ".java").toPath(),
+                ("package p; public class " + name + " { " + body + " }").getBytes(StandardCharsets.UTF_8));
+    }
+}
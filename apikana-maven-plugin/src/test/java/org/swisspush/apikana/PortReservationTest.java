@@ -0,0 +1,90 @@
+package org.swisspush.apikana;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class PortReservationTest {
+    private static final int COUNT = 20;
+
+    @Test
+    public void parallelReservationsGetDifferentPorts() throws Exception {
+        final int base = freePort();
+        final ExecutorService executor = Executors.newFixedThreadPool(COUNT);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<PortReservation>> futures = new ArrayList<>();
+        final List<PortReservation> reservations = new ArrayList<>();
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return PortReservation.reserve(base, 2 * COUNT);
+                }));
+            }
+            start.countDown();
+            final Set<Integer> ports = new HashSet<>();
+            for (final Future<PortReservation> future : futures) {
+                final PortReservation reservation = future.get(10, TimeUnit.SECONDS);
+                reservations.add(reservation);
+                assertTrue(ports.add(reservation.port()));
+            }
+            assertEquals(COUNT, ports.size());
+        } finally {
+            executor.shutdownNow();
+            for (final PortReservation reservation : reservations) {
+                reservation.close();
+            }
+        }
+    }
+
+    @Test
+    public void closedReservationIsReused() throws IOException {
+        final int base = freePort();
+        final int port;
+        try (final PortReservation reservation = PortReservation.reserve(base, 10)) {
+            port = reservation.port();
+        }
+        try (final PortReservation reservation = PortReservation.reserve(base, 10)) {
+            assertEquals(port, reservation.port());
+        }
+    }
+
+    @Test
+    public void portUsedByOtherProcessIsSkipped() throws IOException {
+        try (final ServerSocket other = new ServerSocket(freePort());
+             final PortReservation reservation = PortReservation.reserve(other.getLocalPort(), 10)) {
+            assertNotEquals(other.getLocalPort(), reservation.port());
+        }
+    }
+
+    @Test
+    public void handedOverPortCanBeBoundButStaysReserved() throws IOException {
+        final int base = freePort();
+        try (final PortReservation reservation = PortReservation.reserve(base, 1)) {
+            reservation.handOver();
+            try (final ServerSocket server = new ServerSocket(reservation.port())) {
+                assertEquals(reservation.port(), server.getLocalPort());
+            }
+            try {
+                PortReservation.reserve(base, 1);
+                fail("Port " + base + " should be reserved");
+            } catch (IOException e) {
+                //expected
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.swisspush.apikana;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.apache.maven.model.*;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Compares writing properties.json through ProjectSerializer with the former way:
+ * a new mapper per call, the model written to a String, parsed into a Map and written again.
+ * The project has as many properties, managed dependencies and plugins as the size parameter.
+ * Run with mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.swisspush.apikana.ProjectSerializerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectSerializerBenchmark {
+    @Param({"10", "100", "1000"})
+    private int size;
+
+    private MavenProject project;
+    private ProjectSerializer allFields;
+    private ProjectSerializer someFields;
+
+    @JsonFilter("configurationContainer")
+    private interface ConfigurationContainerMixIn {
+    }
+
+    @JsonFilter("model")
+    private interface ModelMixIn {
+    }
+
+    @JsonFilter("build")
+    private interface BuildMixIn {
+    }
+
+    @Setup
+    public void setup() {
+        final Model model = new Model();
+        model.setGroupId("org.example");
+        model.setArtifactId("sample-api");
+        model.setVersion("1.0.0-SNAPSHOT");
+        model.setPackaging("jar");
+        model.setName("Sample API");
+        final Build build = new Build();
+        final DependencyManagement management = new DependencyManagement();
+        for (int i = 0; i < size; i++) {
+            model.addProperty("property." + i, "value " + i);
+            final Dependency dependency = new Dependency();
+            dependency.setGroupId("org.example.group" + i);
+            dependency.setArtifactId("artifact-" + i);
+            dependency.setVersion("1." + i);
+            management.addDependency(dependency);
+            model.addDependency(dependency.clone());
+            final Plugin plugin = new Plugin();
+            plugin.setGroupId("org.example.plugins");
+            plugin.setArtifactId("plugin-" + i);
+            plugin.setVersion("2." + i);
+            build.addPlugin(plugin);
+        }
+        model.setDependencyManagement(management);
+        model.setBuild(build);
+        project = new MavenProject(model);
+        project.setFile(new File("pom.xml").getAbsoluteFile());
+        allFields = new ProjectSerializer();
+        someFields = new ProjectSerializer(asList("groupId", "artifactId", "version"));
+    }
+
+    @Benchmark
+    public byte[] mapRoundTrip() throws IOException {
+        final Map<String, Object> props = new HashMap<>();
+        for (final String name : project.getProperties().stringPropertyNames()) {
+            props.put(name, project.getProperties().getProperty(name));
+        }
+        final ObjectMapper mapper = new ObjectMapper()
+                .addMixIn(ConfigurationContainer.class, ConfigurationContainerMixIn.class)
+                .addMixIn(Build.class, BuildMixIn.class)
+                .addMixIn(Model.class, ModelMixIn.class);
+        final SimpleFilterProvider filter = new SimpleFilterProvider()
+                .addFilter("configurationContainer", SimpleBeanPropertyFilter.serializeAllExcept("configuration"))
+                .addFilter("build", SimpleBeanPropertyFilter.serializeAllExcept("plugins", "pluginManagement", "pluginsAsMap"))
+                .addFilter("model", SimpleBeanPropertyFilter.serializeAllExcept("dependencies", "repositories", "pluginRepositories"));
+        final Map<?, ?> modelMap = mapper.readValue(mapper.writer(filter).writeValueAsString(project.getModel()), Map.class);
+        props.put("basedir", project.getBasedir());
+        props.put("project", modelMap);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ObjectMapper().writeValue(out, props);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] streaming() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        allFields.write(project, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] streamingSomeFields() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        someFields.write(project, out);
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProjectSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,28 @@
+package org.swisspush.apikana;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerMetricsTest {
+    @Test
+    public void unnamedSpec() {
+        assertEquals("ui", ServerMetrics.pathClassName("/"));
+        assertEquals("ui", ServerMetrics.pathClassName("/index.html"));
+        assertEquals("ui", ServerMetrics.pathClassName("/ui/index.html"));
+        assertEquals("openapi", ServerMetrics.pathClassName("/model/openapi/api.yaml"));
+        assertEquals("model", ServerMetrics.pathClassName("/model/json-schema-v4/User.json"));
+        assertEquals("other", ServerMetrics.pathClassName("/favicon.ico"));
+        assertEquals("other", ServerMetrics.pathClassName(null));
+    }
+
+    @Test
+    public void namedSpec() {
+        assertEquals("ui", ServerMetrics.pathClassName("/users/ui/"));
+        assertEquals("ui", ServerMetrics.pathClassName("/users/ui/index.html"));
+        assertEquals("openapi", ServerMetrics.pathClassName("/users/model/openapi/api.yaml"));
+        assertEquals("model", ServerMetrics.pathClassName("/users/model/ts/User.ts"));
+        assertEquals("other", ServerMetrics.pathClassName("/users/other/ui/index.html"));
+        assertEquals("other", ServerMetrics.pathClassName("/users/"));
+    }
+}